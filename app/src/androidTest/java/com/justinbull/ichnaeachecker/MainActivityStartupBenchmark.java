@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.widget.ListView;
+
+/**
+ * Measures a warm start of {@link MainActivity}: time until the first frame is up, and time until
+ * the first cell scan (or the cached session) has populated the list. The activity is launched into
+ * the instrumentation's own process, which is already running with the app's classes loaded, so
+ * this tracks the activity's own startup work between changes. It is not a cold start; measure
+ * those with {@code ./gradlew measureColdStart}, see benchmark.gradle.
+ *
+ * Both timings are reported as instrumentation status values, so they can be collected and
+ * compared between runs with {@code adb shell am instrument -r -w -e class ...}:
+ * {@value #KEY_FIRST_FRAME_MILLIS}, and {@value #KEY_POPULATED_MILLIS} (-1 if the list stayed empty,
+ * e.g. without the location permission or any cell in view).
+ */
+public class MainActivityStartupBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String TAG = "StartupBenchmark";
+
+    public static final String KEY_FIRST_FRAME_MILLIS = "first_frame_ms";
+    public static final String KEY_POPULATED_MILLIS = "populated_ms";
+
+    // Status code for custom results, as opposed to the runner's own (-2 to 1)
+    private static final int REPORT_VALUE_RESULT_CODE = 2;
+
+    private static final long FIRST_FRAME_BUDGET_MILLIS = 2000;
+    private static final long SCAN_TIMEOUT_MILLIS = 10000;
+
+    public MainActivityStartupBenchmark() {
+        super(MainActivity.class);
+    }
+
+    public void testStartupTiming() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        MainActivity activity = getActivity();
+        getInstrumentation().waitForIdleSync();
+        long firstFrame = SystemClock.elapsedRealtime() - start;
+
+        ListView cellList = (ListView) activity.findViewById(R.id.cellListView);
+        assertNotNull(cellList);
+        long populated = -1;
+        while (SystemClock.elapsedRealtime() - start < SCAN_TIMEOUT_MILLIS) {
+            if (getListedCellCount(cellList) > 0) {
+                populated = SystemClock.elapsedRealtime() - start;
+                break;
+            }
+            SystemClock.sleep(10);
+        }
+
+        Log.i(TAG, "testStartupTiming: First frame after " + firstFrame + "ms, list populated after " + populated + "ms");
+        Bundle results = new Bundle();
+        results.putLong(KEY_FIRST_FRAME_MILLIS, firstFrame);
+        results.putLong(KEY_POPULATED_MILLIS, populated);
+        getInstrumentation().sendStatus(REPORT_VALUE_RESULT_CODE, results);
+
+        assertTrue("First frame took " + firstFrame + "ms, budget is " + FIRST_FRAME_BUDGET_MILLIS + "ms",
+                firstFrame <= FIRST_FRAME_BUDGET_MILLIS);
+    }
+
+    /**
+     * The adapter is changed on the main thread, so it's read there too.
+     */
+    private int getListedCellCount(final ListView cellList) {
+        final int[] count = new int[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = cellList.getCount();
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Answers "not in database" straight away for cells a {@link CellBloomFilter} of the MLS export
+ * rules out, and leaves every other cell for the next resolver. Mapped on first use.
+ *
+ * The filter is only as current as the export it was built from: a cell MLS learned about since
+ * is reported missing until the filter file is replaced.
+ */
+public class BloomFilterCellResolver implements CellResolver {
+    private static final String TAG = "BloomFilterCellResolver";
+
+    public static final String DEFAULT_FILE_NAME = "cells.bloom";
+
+    private static final String SOURCE = "bloom";
+
+    private final File mFile;
+    private CellBloomFilter mFilter;
+    private boolean mUnavailable;
+
+    public BloomFilterCellResolver(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public CellLookupResult resolve(GeneralCellInfo cell) {
+        CellBloomFilter filter = getFilter();
+        if (filter == null || filter.mightContain(cell.getCellKey(), cell.getNetworkTypeIndex())) {
+            return null;
+        }
+        return CellLookupResult.notFound(SOURCE, mFile.lastModified());
+    }
+
+    private synchronized CellBloomFilter getFilter() {
+        if (mFilter == null && !mUnavailable) {
+            if (!mFile.exists()) {
+                return null; // May still be installed, see CellDataInstaller
+            }
+            try {
+                mFilter = CellBloomFilter.open(mFile);
+            } catch (IOException e) {
+                Log.w(TAG, "getFilter: Unable to open " + mFile + ", skipping Bloom filter", e);
+                mUnavailable = true;
+            }
+        }
+        return mFilter;
+    }
+}
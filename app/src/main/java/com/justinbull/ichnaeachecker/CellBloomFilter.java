@@ -0,0 +1,246 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A Bloom filter of cell keys, built from a {@link CellDatasetFile}, that tells for certain when a
+ * cell is <em>not</em> in the dataset at a small fraction of the dataset's size: about 1.2 MB per
+ * million cells at a 1% false positive rate, against 24 MB for the dataset itself.
+ *
+ * Uses double hashing (Kirsch and Mitzenmacher) over a 64-bit mix of the packed key and network
+ * type, so each probe costs a multiply and an add. Not thread-safe while being built, safe to
+ * query from any thread afterwards.
+ *
+ * The file is the raw bit array behind a small header, uncompressed, so {@link #open(File)} can
+ * memory-map it like a {@link CellDatasetFile} instead of reading it onto the heap: a filter of
+ * the full MLS export runs to tens of megabytes, of which only the pages actually probed are ever
+ * loaded. One mapping holds at most 2 GB, which caps a filter at about 1.7 billion cells at a 1%
+ * false positive rate.
+ *
+ * {@link #main(String[])} builds the filter bundled with the app, see tools.gradle. It has to be
+ * built from the full MLS export: a filter of a regional extract would rule out every cell outside
+ * the region.
+ */
+public final class CellBloomFilter {
+    private static final int MAGIC = 0x49434246; // "ICBF"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_WORD_COUNT = Integer.MAX_VALUE / 8;
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final LongBuffer mWords;
+    private final long mBitCount;
+    private final int mHashCount;
+
+    private CellBloomFilter(LongBuffer words, int hashCount) {
+        mWords = words;
+        mBitCount = (long) words.capacity() * 64;
+        mHashCount = hashCount;
+    }
+
+    /**
+     * @param expectedCells     How many cells will be added
+     * @param falsePositiveRate Wanted chance of a missing cell being reported as possibly present
+     */
+    public static CellBloomFilter create(long expectedCells, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        long cells = Math.max(1, expectedCells);
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-cells * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long words = (bits + 63) / 64;
+        if (words > MAX_WORD_COUNT) {
+            throw new IllegalArgumentException("Too many cells for one filter");
+        }
+        int hashCount = Math.max(1, (int) Math.round((double) words * 64 / cells * ln2));
+        return new CellBloomFilter(LongBuffer.wrap(new long[(int) words]), hashCount);
+    }
+
+    /**
+     * Build a filter holding every cell of a dataset.
+     */
+    public static CellBloomFilter build(CellDatasetFile dataset, double falsePositiveRate) {
+        long records = dataset.getRecordCount();
+        CellBloomFilter filter = create(records, falsePositiveRate);
+        for (long i = 0; i < records; i++) {
+            filter.put(dataset.getKey(i), dataset.getNetworkType(i));
+        }
+        return filter;
+    }
+
+    /**
+     * Add a cell. Filters opened with {@link #open(File)} are read-only.
+     */
+    public void put(long packedKey, int networkType) {
+        long hash = mix(packedKey, networkType);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < mHashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mBitCount;
+            int word = (int) (bit >>> 6);
+            mWords.put(word, mWords.get(word) | 1L << bit);
+        }
+    }
+
+    /**
+     * @return false if the cell is certainly not in the dataset, true if it may be
+     */
+    public boolean mightContain(long packedKey, int networkType) {
+        long hash = mix(packedKey, networkType);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < mHashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mBitCount;
+            if ((mWords.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getBitCount() {
+        return mBitCount;
+    }
+
+    public int getHashCount() {
+        return mHashCount;
+    }
+
+    /**
+     * Write the filter in the format {@link #open(File)} maps. Closes the stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(mHashCount);
+            data.writeInt(mWords.capacity());
+            for (int i = 0, count = mWords.capacity(); i < count; i++) {
+                data.writeLong(mWords.get(i));
+            }
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Map a filter written by {@link #writeTo(OutputStream)}. The file isn't held open: the
+     * mapping stays valid on its own until the filter is garbage collected.
+     */
+    public static CellBloomFilter open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not a cell Bloom filter");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a cell Bloom filter");
+            }
+            int hashCount = header.getInt();
+            int wordCount = header.getInt();
+            if (hashCount < 1 || wordCount < 1 || wordCount > MAX_WORD_COUNT) {
+                throw new IOException(file + " has a corrupt header");
+            }
+            if (HEADER_SIZE + (long) wordCount * 8 > channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            ByteBuffer words = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) wordCount * 8);
+            return new CellBloomFilter(words.asLongBuffer(), hashCount);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Builds a filter from an MLS cell export, or a dataset file already converted from one:
+     * {@code CellBloomFilter <mls-export.csv[.gz] | cells.dat> <output.bloom> [false positive rate]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: CellBloomFilter <mls-export.csv[.gz] | cells.dat> <output.bloom> [false positive rate]");
+            System.exit(2);
+        }
+        double falsePositiveRate = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_FALSE_POSITIVE_RATE;
+        File input = new File(args[0]);
+        boolean convert = !input.getName().endsWith(".dat");
+        File datasetFile = convert ? File.createTempFile("cells", ".dat") : input;
+        try {
+            if (convert) {
+                InputStream csv = CellDatasetFile.openExport(input);
+                try {
+                    CellDatasetFile.convertMlsExport(csv, datasetFile);
+                } finally {
+                    csv.close();
+                }
+            }
+            CellBloomFilter filter;
+            CellDatasetFile dataset = CellDatasetFile.open(datasetFile);
+            try {
+                filter = build(dataset, falsePositiveRate);
+            } finally {
+                dataset.close();
+            }
+            OutputStream out = new FileOutputStream(args[1]);
+            try {
+                filter.writeTo(out);
+            } finally {
+                out.close();
+            }
+            System.out.println("Wrote a filter of " + dataset.getRecordCount() + " cells to " + args[1] + " ("
+                    + filter.getBitCount() / 8 + " bytes, " + filter.getHashCount() + " hashes)");
+        } finally {
+            if (convert && !datasetFile.delete()) {
+                System.err.println("Unable to delete " + datasetFile);
+            }
+        }
+    }
+
+    /**
+     * The splitmix64 finalizer over the key and network type.
+     */
+    private static long mix(long packedKey, int networkType) {
+        long z = packedKey + (networkType + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers where MLS says cells are, and checks each new observation of a cell (together with a
+ * position fix of the device) against it to spot towers worth re-surveying:
+ * <ul>
+ * <li>{@link Change#MOVED}: the device sees the cell from well outside the radius MLS reports for
+ * it, so the tower was likely moved or its cell identity reused.</li>
+ * <li>{@link Change#NEW_IN_KNOWN_AREA}: the cell has no known position, yet other cells of its
+ * area (LAC/TAC) do, so it's probably a newly built cell.</li>
+ * </ul>
+ *
+ * Positions are recorded as lookups come in, can be seeded in bulk from earlier sessions with
+ * {@link #recordPositions(Map)}, and are read on demand from a {@link PositionSource} (e.g. the
+ * offline dataset) the first time a cell is observed.
+ *
+ * Apart from that first lookup, every call is a couple of hash lookups and one distance
+ * calculation, so it can run inline with continuous scanning. Thread-safe.
+ */
+public class CellChangeDetector {
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    /**
+     * How many times its recorded accuracy radius a cell may be seen from before it counts as moved.
+     */
+    public static final float DEFAULT_TOLERANCE_FACTOR = 2f;
+
+    public enum Change {
+        /** The observation agrees with the recorded position. */
+        NONE,
+        /** Nothing is known about the cell nor its area. */
+        UNKNOWN,
+        /** The cell is seen far outside its recorded accuracy radius. */
+        MOVED,
+        /** The cell has no recorded position, but its area has other cells that do. */
+        NEW_IN_KNOWN_AREA,
+    }
+
+    /**
+     * A local source of recorded cell positions, asked about each cell at most once it is
+     * available. May block.
+     */
+    public interface PositionSource {
+        /**
+         * @return Whether the source can answer yet, e.g. its data has been installed. Cells
+         * observed before then are asked about once it can.
+         */
+        boolean isAvailable();
+
+        /**
+         * @return The recorded position of the cell, or null if unknown
+         */
+        @Nullable
+        CellLookupResult getPosition(GeneralCellInfo cell);
+
+        /**
+         * @return Whether any cell of the cell's area (LAC/TAC) has a recorded position
+         */
+        boolean hasPositionsInArea(GeneralCellInfo cell);
+    }
+
+    private static class KnownPosition {
+        final double latitude;
+        final double longitude;
+        final float accuracyMeters;
+
+        KnownPosition(double latitude, double longitude, float accuracyMeters) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracyMeters = accuracyMeters;
+        }
+    }
+
+    private final Map<CellKey, KnownPosition> mPositions = new HashMap<>();
+    private final Set<CellKey> mKnownAreas = new HashSet<>();
+    private final Set<CellKey> mSourceChecked = new HashSet<>();
+    private final PositionSource mPositionSource;
+    private final float mToleranceFactor;
+
+    public CellChangeDetector() {
+        this(null, DEFAULT_TOLERANCE_FACTOR);
+    }
+
+    /**
+     * @param positionSource  Where to look up cells that have no recorded position yet, or null
+     * @param toleranceFactor How many times its recorded accuracy radius a cell may be seen from
+     *                        before it counts as moved
+     */
+    public CellChangeDetector(@Nullable PositionSource positionSource, float toleranceFactor) {
+        mPositionSource = positionSource;
+        mToleranceFactor = toleranceFactor;
+    }
+
+    /**
+     * Remember the position MLS reported for a cell, replacing any previous one.
+     *
+     * @param cell           A fully known cell
+     * @param latitude       Cell latitude in degrees
+     * @param longitude      Cell longitude in degrees
+     * @param accuracyMeters Radius MLS gives for the cell
+     */
+    public void recordPosition(GeneralCellInfo cell, double latitude, double longitude, float accuracyMeters) {
+        if (!cell.isFullyKnown()) {
+            throw new IllegalArgumentException("Insufficient cell information to record a position");
+        }
+        recordPosition(CellKey.of(cell), latitude, longitude, accuracyMeters);
+    }
+
+    /**
+     * Remember the found results among the given lookup results, e.g. those kept from earlier
+     * sessions, replacing any previous positions of their cells.
+     */
+    public synchronized void recordPositions(Map<CellKey, CellLookupResult> results) {
+        for (Map.Entry<CellKey, CellLookupResult> entry : results.entrySet()) {
+            CellLookupResult result = entry.getValue();
+            if (result.isFound()) {
+                recordPosition(entry.getKey(), result.getLatitude(), result.getLongitude(), result.getAccuracyMeters());
+            }
+        }
+    }
+
+    private synchronized void recordPosition(CellKey key, double latitude, double longitude, float accuracyMeters) {
+        mPositions.put(key, new KnownPosition(latitude, longitude, accuracyMeters));
+        mKnownAreas.add(CellKey.areaOf(key));
+    }
+
+    /**
+     * Check an observation of a cell against its recorded position. The first observation of a
+     * cell without one may block on the {@link PositionSource}.
+     *
+     * @param cell              The observed cell, if not fully known {@link Change#UNKNOWN} is returned
+     * @param latitude          Device latitude in degrees
+     * @param longitude         Device longitude in degrees
+     * @param fixAccuracyMeters Accuracy of the device's position fix, widens the tolerance
+     */
+    public synchronized Change observe(GeneralCellInfo cell, double latitude, double longitude, float fixAccuracyMeters) {
+        if (!cell.isFullyKnown()) {
+            return Change.UNKNOWN;
+        }
+        CellKey key = CellKey.of(cell);
+        KnownPosition known = mPositions.get(key);
+        if (known == null && mPositionSource != null && !mSourceChecked.contains(key)
+                && mPositionSource.isAvailable()) {
+            mSourceChecked.add(key);
+            CellLookupResult result = mPositionSource.getPosition(cell);
+            if (result != null && result.isFound()) {
+                recordPosition(key, result.getLatitude(), result.getLongitude(), result.getAccuracyMeters());
+                known = mPositions.get(key);
+            } else if (mPositionSource.hasPositionsInArea(cell)) {
+                mKnownAreas.add(CellKey.areaOf(key));
+            }
+        }
+        if (known == null) {
+            return mKnownAreas.contains(CellKey.areaOf(key)) ? Change.NEW_IN_KNOWN_AREA : Change.UNKNOWN;
+        }
+        double distance = distanceMeters(known.latitude, known.longitude, latitude, longitude);
+        if (distance > known.accuracyMeters * mToleranceFactor + fixAccuracyMeters) {
+            return Change.MOVED;
+        }
+        return Change.NONE;
+    }
+
+    /**
+     * Great-circle distance by the haversine formula, plenty accurate at cell radius scale.
+     */
+    static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Installs the cell datasets bundled in the APK's assets (made by the tasks in tools.gradle) into
+ * the app's files directory, where the offline resolvers read them from. A bundled file is copied
+ * if it isn't installed yet or the installed copy predates the last app update, so an update
+ * shipping a newer dataset replaces it. Files that aren't bundled are left alone.
+ *
+ * Assets are compressed inside the APK and can't be memory mapped, hence the copy. Each file is
+ * written under a temporary name first and renamed into place, so a resolver never sees a
+ * partially copied file. An installed file is picked up by the resolvers on their next lookup if
+ * they hadn't opened one before, otherwise on the next launch.
+ *
+ * Blocking, run it off the main thread.
+ */
+public class CellDataInstaller implements Runnable {
+    private static final String TAG = "CellDataInstaller";
+
+    static final String[] BUNDLED_FILES = {OfflineCellResolver.DEFAULT_FILE_NAME, BloomFilterCellResolver.DEFAULT_FILE_NAME};
+
+    private final Context mContext;
+
+    public CellDataInstaller(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public void run() {
+        long updatedAt;
+        try {
+            updatedAt = mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.wtf(TAG, "run: Unable to find our own package", e);
+            return;
+        }
+        for (String name : BUNDLED_FILES) {
+            File installed = new File(mContext.getFilesDir(), name);
+            if (installed.lastModified() > updatedAt) {
+                continue; // Also true for files pushed onto the device since, which are kept
+            }
+            try {
+                install(name, installed);
+            } catch (IOException e) {
+                Log.e(TAG, "run: Unable to install " + name, e);
+            }
+        }
+    }
+
+    private void install(String name, File installed) throws IOException {
+        InputStream in;
+        try {
+            in = mContext.getAssets().open(name);
+        } catch (FileNotFoundException e) {
+            return; // Not bundled with this build
+        }
+        File tmpFile = new File(installed.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(installed)) {
+                throw new IOException("Unable to rename " + tmpFile + " to " + installed);
+            }
+            Log.i(TAG, "install: Installed " + name + " (" + installed.length() + " bytes)");
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                Log.w(TAG, "install: Unable to delete " + tmpFile);
+            }
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "closeQuietly: ", e);
+        }
+    }
+}
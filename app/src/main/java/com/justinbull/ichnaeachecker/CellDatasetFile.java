@@ -0,0 +1,416 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A cell dataset (e.g. an MLS cell export) as a file of fixed-width records sorted by
+ * {@link CellKey#compare(long, int, long, int)}, read through memory maps so lookups are a binary
+ * search over the page cache and nothing has to be parsed or loaded up front.
+ *
+ * Layout, big-endian: a 16 byte header (magic, version, record count) followed by
+ * {@link #RECORD_SIZE} byte records of packed key (long), network type (int), latitude and
+ * longitude in 1e-7 degrees (ints) and range in meters (int).
+ *
+ * Files larger than one memory map can address are mapped in several windows of up to 1 GB, each
+ * on first access, so a lookup only reserves address space for the window it lands in. That
+ * matters on 32-bit devices, which couldn't map a whole multi-gigabyte dataset at once. Reads are
+ * absolute, so an open file can be shared between threads.
+ *
+ * {@link #main(String[])} converts an MLS cell export from the command line, see tools.gradle.
+ */
+public final class CellDatasetFile implements Closeable {
+    public static final int RECORD_SIZE = 24;
+
+    private static final int MAGIC = 0x49434453; // "ICDS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final long RECORDS_PER_WINDOW = (1 << 30) / RECORD_SIZE;
+    private static final double E7 = 1e7;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final AtomicReferenceArray<MappedByteBuffer> mWindows;
+    private final long mRecordCount;
+
+    private CellDatasetFile(RandomAccessFile file, long recordCount) {
+        mFile = file;
+        mChannel = file.getChannel();
+        mWindows = new AtomicReferenceArray<>((int) ((recordCount + RECORDS_PER_WINDOW - 1) / RECORDS_PER_WINDOW));
+        mRecordCount = recordCount;
+    }
+
+    public static CellDatasetFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a cell dataset file");
+            }
+            long recordCount = header.getLong();
+            if (HEADER_SIZE + recordCount * RECORD_SIZE > channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            return new CellDatasetFile(raf, recordCount);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    public long getKey(long index) {
+        return window(index).getLong(offset(index));
+    }
+
+    public int getNetworkType(long index) {
+        return window(index).getInt(offset(index) + 8);
+    }
+
+    public double getLatitude(long index) {
+        return window(index).getInt(offset(index) + 12) / E7;
+    }
+
+    public double getLongitude(long index) {
+        return window(index).getInt(offset(index) + 16) / E7;
+    }
+
+    public int getRange(long index) {
+        return window(index).getInt(offset(index) + 20);
+    }
+
+    /**
+     * @return Index of the first record not ordered before the given key, or the record count if
+     * there is none
+     */
+    public long lowerBound(long packedKey, int networkType) {
+        return lowerBound(packedKey, networkType, 0, mRecordCount);
+    }
+
+    /**
+     * Same as {@link #lowerBound(long, int)}, restricted to records [from, to).
+     */
+    public long lowerBound(long packedKey, int networkType, long from, long to) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (CellKey.compare(getKey(mid), getNetworkType(mid), packedKey, networkType) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Index of the record for the cell, or -1 if it isn't in the dataset
+     */
+    public long find(long packedKey, int networkType) {
+        long index = lowerBound(packedKey, networkType);
+        if (index < mRecordCount && getKey(index) == packedKey && getNetworkType(index) == networkType) {
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Whether the dataset has any cell of the network type in the same area (LAC/TAC) as the
+     * given cell, i.e. whose packed key differs from it in the cell identity only
+     */
+    public boolean containsArea(long packedKey, int networkType) {
+        long first = packedKey & ~0xFFFFFFFL; // Cell identity is the low 28 bits
+        long last = first | 0xFFFFFFFL;
+        for (long index = lowerBound(first, 0); index < mRecordCount && getKey(index) <= last; index++) {
+            if (getNetworkType(index) == networkType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the file. The memory maps made so far stay valid until they're garbage collected, Java
+     * offers no way to unmap them explicitly, but reading a window that wasn't mapped yet fails.
+     */
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private ByteBuffer window(long index) {
+        if (index < 0 || index >= mRecordCount) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + mRecordCount);
+        }
+        int i = (int) (index / RECORDS_PER_WINDOW);
+        MappedByteBuffer window = mWindows.get(i);
+        if (window == null) {
+            window = mapWindow(i);
+        }
+        return window;
+    }
+
+    /**
+     * Threads racing to map the same window each map it, the first one to finish wins and the
+     * others' maps are left to the garbage collector.
+     */
+    private MappedByteBuffer mapWindow(int i) {
+        long first = i * RECORDS_PER_WINDOW;
+        long records = Math.min(RECORDS_PER_WINDOW, mRecordCount - first);
+        MappedByteBuffer window;
+        try {
+            window = mChannel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE, records * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map records " + first + " to " + (first + records), e);
+        }
+        if (mWindows.compareAndSet(i, null, window)) {
+            return window;
+        }
+        return mWindows.get(i);
+    }
+
+    private static int offset(long index) {
+        return (int) (index % RECORDS_PER_WINDOW) * RECORD_SIZE;
+    }
+
+    /**
+     * Convert an MLS cell export (CSV with radio, mcc, net, area, cell, unit, lon, lat, range, ...
+     * columns, already decompressed) into a dataset file. Cells of unsupported radio types, or
+     * whose identifiers don't fit a packed key, are skipped.
+     *
+     * Records are sorted in memory, 24 bytes per cell, so size the heap for the export accordingly.
+     *
+     * @return The number of cells written
+     */
+    public static long convertMlsExport(InputStream csv, File output) throws IOException {
+        return convertMlsExport(csv, output, null);
+    }
+
+    /**
+     * Same as {@link #convertMlsExport(InputStream, File)}, keeping only the cells of the given
+     * countries, e.g. to make a regional extract small enough to ship with the app.
+     *
+     * @param countryCodes MCCs of the cells to keep, or null to keep all of them
+     */
+    public static long convertMlsExport(InputStream csv, File output, Set<Integer> countryCodes) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, "UTF-8"), 64 * 1024);
+        int count = 0;
+        long[] keys = new long[1024];
+        int[] types = new int[1024];
+        int[] latitudes = new int[1024];
+        int[] longitudes = new int[1024];
+        int[] ranges = new int[1024];
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(",", 10);
+            if (fields.length < 9) {
+                continue;
+            }
+            int type = getNetworkTypeIndex(fields[0]);
+            if (type == -1) {
+                continue; // Also skips the header row
+            }
+            try {
+                int mcc = Integer.parseInt(fields[1]);
+                int mnc = Integer.parseInt(fields[2]);
+                int area = Integer.parseInt(fields[3]);
+                long cell = Long.parseLong(fields[4]);
+                if (mcc < 0 || mcc > 999 || mnc < 0 || mnc > 999 || area < 0 || area > 0xFFFF
+                        || cell < 0 || cell > 0xFFFFFFFL) {
+                    continue;
+                }
+                if (countryCodes != null && !countryCodes.contains(mcc)) {
+                    continue;
+                }
+                if (count == keys.length) {
+                    int capacity = count * 2;
+                    keys = Arrays.copyOf(keys, capacity);
+                    types = Arrays.copyOf(types, capacity);
+                    latitudes = Arrays.copyOf(latitudes, capacity);
+                    longitudes = Arrays.copyOf(longitudes, capacity);
+                    ranges = Arrays.copyOf(ranges, capacity);
+                }
+                keys[count] = GeneralCellInfo.packCellKey(mcc, mnc, area, (int) cell);
+                types[count] = type;
+                longitudes[count] = (int) Math.round(Double.parseDouble(fields[6]) * E7);
+                latitudes[count] = (int) Math.round(Double.parseDouble(fields[7]) * E7);
+                ranges[count] = Integer.parseInt(fields[8]);
+                count++;
+            } catch (NumberFormatException e) {
+                // Malformed row, skip it
+            }
+        }
+
+        int[] order = sortOrder(keys, types, count);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0); // Record count, patched in below once duplicates are dropped
+            int written = 0;
+            for (int n = 0; n < count; n++) {
+                int i = order[n];
+                if (n > 0 && keys[i] == keys[order[n - 1]] && types[i] == types[order[n - 1]]) {
+                    continue;
+                }
+                out.writeLong(keys[i]);
+                out.writeInt(types[i]);
+                out.writeInt(latitudes[i]);
+                out.writeInt(longitudes[i]);
+                out.writeInt(ranges[i]);
+                written++;
+            }
+            out.close();
+            out = null;
+            RandomAccessFile raf = new RandomAccessFile(output, "rw");
+            try {
+                raf.seek(8);
+                raf.writeLong(written);
+            } finally {
+                raf.close();
+            }
+            return written;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Converts an MLS cell export into a dataset file:
+     * {@code CellDatasetFile <export.csv[.gz]> <output.dat> [mcc,mcc,...]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: CellDatasetFile <mls-export.csv[.gz]> <output.dat> [mcc,mcc,...]");
+            System.exit(2);
+        }
+        Set<Integer> countryCodes = null;
+        if (args.length == 3) {
+            countryCodes = new HashSet<>();
+            for (String mcc : args[2].split(",")) {
+                countryCodes.add(Integer.parseInt(mcc.trim()));
+            }
+        }
+        InputStream csv = openExport(new File(args[0]));
+        try {
+            long written = convertMlsExport(csv, new File(args[1]), countryCodes);
+            System.out.println("Wrote " + written + " cells to " + args[1]);
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * @return The export's contents, decompressed if the file name ends in .gz as MLS serves them
+     */
+    static InputStream openExport(File export) throws IOException {
+        InputStream in = new FileInputStream(export);
+        if (!export.getName().endsWith(".gz")) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, 64 * 1024);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The index into {@link GeneralCellInfo#NETWORKS} for an MLS radio name, or -1
+     */
+    static int getNetworkTypeIndex(String mlsRadio) {
+        String type = "UMTS".equals(mlsRadio) ? GeneralCellInfo.NETWORK_TYPE_WCDMA : mlsRadio;
+        for (int i = 0; i < GeneralCellInfo.NETWORKS.length; i++) {
+            if (GeneralCellInfo.NETWORKS[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A stable merge sort of record indices by key then network type, over primitive arrays so
+     * millions of records don't have to be boxed.
+     */
+    static int[] sortOrder(long[] keys, int[] types, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min(low + 2 * width, count);
+                mergeOrder(keys, types, order, buffer, low, mid, high);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Merge the sorted runs order[low, mid) and order[mid, high) in place, using buffer as scratch.
+     */
+    static void mergeOrder(long[] keys, int[] types, int[] order, int[] buffer, int low, int mid, int high) {
+        System.arraycopy(order, low, buffer, low, high - low);
+        int left = low;
+        int right = mid;
+        for (int n = low; n < high; n++) {
+            if (left < mid && (right >= high || CellKey.compare(keys[buffer[left]], types[buffer[left]],
+                    keys[buffer[right]], types[buffer[right]]) <= 0)) {
+                order[n] = buffer[left++];
+            } else {
+                order[n] = buffer[right++];
+            }
+        }
+    }
+}
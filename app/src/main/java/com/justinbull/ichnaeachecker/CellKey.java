@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+/**
+ * Identifies a cell across scans and data sources: its packed key (see
+ * {@link GeneralCellInfo#packCellKey(int, int, int, int)}) together with its network type, since
+ * the same numbers may identify different cells on GSM and LTE.
+ */
+public final class CellKey {
+    private static final long CELL_IDENTITY_MASK = 0xFFFFFFFL; // The low 28 bits of a packed key
+
+    private final int mNetworkType;
+    private final long mPacked;
+
+    /**
+     * @param networkType Index into {@link GeneralCellInfo#NETWORKS}
+     * @param packed      Packed key from {@link GeneralCellInfo#packCellKey(int, int, int, int)}
+     */
+    public CellKey(int networkType, long packed) {
+        mNetworkType = networkType;
+        mPacked = packed;
+    }
+
+    /**
+     * @param cell A fully known cell
+     */
+    public static CellKey of(GeneralCellInfo cell) {
+        return new CellKey(cell.getNetworkTypeIndex(), cell.getCellKey());
+    }
+
+    /**
+     * @param cell A fully known cell
+     * @return A key shared by all cells in the same area (LAC/TAC) of the same network
+     */
+    public static CellKey areaOf(GeneralCellInfo cell) {
+        return new CellKey(cell.getNetworkTypeIndex(), GeneralCellInfo.packCellKey(
+                cell.getMobileCountryCode(), cell.getMobileNetworkCode(), cell.getAreaCode(), 0));
+    }
+
+    /**
+     * @return A key shared by all cells in the same area (LAC/TAC) of the same network
+     */
+    public static CellKey areaOf(CellKey key) {
+        return new CellKey(key.mNetworkType, key.mPacked & ~CELL_IDENTITY_MASK);
+    }
+
+    /**
+     * @param value A key as formatted by {@link #toString()}
+     * @throws IllegalArgumentException if the value isn't one
+     */
+    public static CellKey parse(String value) {
+        int separator = value.indexOf(':');
+        try {
+            return new CellKey(Integer.parseInt(value.substring(0, separator)), Long.parseLong(value.substring(separator + 1)));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Not a cell key: " + value, e);
+        }
+    }
+
+    public int getNetworkType() {
+        return mNetworkType;
+    }
+
+    public long getPacked() {
+        return mPacked;
+    }
+
+    /**
+     * Orders by packed key first, then network type. This is the order the records of a
+     * {@link CellDatasetFile} are sorted in.
+     */
+    public static int compare(long lhsPacked, int lhsNetworkType, long rhsPacked, int rhsNetworkType) {
+        if (lhsPacked != rhsPacked) {
+            return lhsPacked < rhsPacked ? -1 : 1;
+        }
+        if (lhsNetworkType != rhsNetworkType) {
+            return lhsNetworkType < rhsNetworkType ? -1 : 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CellKey)) {
+            return false;
+        }
+        CellKey that = (CellKey) o;
+        return mNetworkType == that.mNetworkType && mPacked == that.mPacked;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mNetworkType + (int) (mPacked ^ (mPacked >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return mNetworkType + ":" + mPacked;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link CellLookupService} that asks its resolvers in order and stops at the first definitive
+ * answer, so cheap local sources are always tried before the network. Caching resolvers ahead of
+ * the one that answered are given the answer to remember.
+ */
+public class CellLookupChain implements CellLookupService {
+    private final ExecutorService mExecutor;
+    private final List<CellResolver> mResolvers;
+
+    /**
+     * @param executor  Runs the lookups, owned by the caller
+     * @param resolvers Resolvers in the order they're asked, cheapest first
+     */
+    public CellLookupChain(ExecutorService executor, List<CellResolver> resolvers) {
+        if (resolvers.isEmpty()) {
+            throw new IllegalArgumentException("A lookup chain needs at least one resolver");
+        }
+        mExecutor = executor;
+        mResolvers = new ArrayList<>(resolvers);
+    }
+
+    public CellLookupChain(ExecutorService executor, CellResolver... resolvers) {
+        this(executor, Arrays.asList(resolvers));
+    }
+
+    @Override
+    public Future<CellLookupResult> lookup(final GeneralCellInfo cell) {
+        IchnaeaRestClient.checkLookupPossible(cell);
+        return mExecutor.submit(new Callable<CellLookupResult>() {
+            @Override
+            public CellLookupResult call() throws IOException {
+                return resolve(cell);
+            }
+        });
+    }
+
+    /**
+     * Run the chain on the calling thread, e.g. from headless tools that bring their own threading.
+     *
+     * @throws IOException if no resolver had a definitive answer, or one of them failed
+     */
+    public CellLookupResult resolve(GeneralCellInfo cell) throws IOException {
+        for (int i = 0; i < mResolvers.size(); i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Lookup cancelled");
+            }
+            CellLookupResult result = mResolvers.get(i).resolve(cell);
+            if (result == null) {
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                CellResolver earlier = mResolvers.get(j);
+                if (earlier instanceof CachingCellResolver) {
+                    ((CachingCellResolver) earlier).remember(cell, result);
+                }
+            }
+            return result;
+        }
+        throw new IOException("No resolver had a definitive answer for " + cell);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+/**
+ * The definitive answer to whether, and where, a cell is in the MLS database.
+ */
+public final class CellLookupResult {
+    public enum Status {
+        FOUND,
+        NOT_FOUND,
+    }
+
+    private final Status mStatus;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final float mAccuracyMeters;
+    private final String mSource;
+    private final long mResolvedAt;
+
+    private CellLookupResult(Status status, double latitude, double longitude, float accuracyMeters, String source, long resolvedAt) {
+        mStatus = status;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mAccuracyMeters = accuracyMeters;
+        mSource = source;
+        mResolvedAt = resolvedAt;
+    }
+
+    /**
+     * @param source     Name of the resolver that produced the answer, for logging
+     * @param resolvedAt When the answer was obtained from its original source, in milliseconds
+     *                   since the epoch
+     */
+    public static CellLookupResult found(double latitude, double longitude, float accuracyMeters, String source, long resolvedAt) {
+        return new CellLookupResult(Status.FOUND, latitude, longitude, accuracyMeters, source, resolvedAt);
+    }
+
+    /**
+     * @param source     Name of the resolver that produced the answer, for logging
+     * @param resolvedAt When the answer was obtained from its original source, in milliseconds
+     *                   since the epoch
+     */
+    public static CellLookupResult notFound(String source, long resolvedAt) {
+        return new CellLookupResult(Status.NOT_FOUND, Double.NaN, Double.NaN, Float.NaN, source, resolvedAt);
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    public boolean isFound() {
+        return mStatus == Status.FOUND;
+    }
+
+    /**
+     * @return Latitude in degrees, NaN if not found
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return Longitude in degrees, NaN if not found
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return Accuracy radius in meters, NaN if not found
+     */
+    public float getAccuracyMeters() {
+        return mAccuracyMeters;
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    public long getResolvedAt() {
+        return mResolvedAt;
+    }
+
+    @Override
+    public String toString() {
+        if (!isFound()) {
+            return "Result:{NOT_FOUND source=" + mSource + "}";
+        }
+        return "Result:{FOUND lat=" + mLatitude + " lng=" + mLongitude + " accuracy=" + mAccuracyMeters
+                + " source=" + mSource + "}";
+    }
+}
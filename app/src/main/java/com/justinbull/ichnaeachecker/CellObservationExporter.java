@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams cell observations to a gzip compressed file, one scan at a time, so memory use stays
+ * bounded by the buffer size no matter how long the session is.
+ *
+ * <ul>
+ * <li>{@link Format#CSV_GZIP} writes one row per observed cell in the column layout of the MLS cell
+ * export: radio, mcc, net, area, cell, unit, lon, lat, range, samples, changeable, created, updated
+ * and averageSignal. Each row is a single sample: lon, lat and range are the device's position fix
+ * and its accuracy (left empty without a fix), created and updated the scan time, and
+ * averageSignal the observed dBm. Unknown fields are left empty.</li>
+ * <li>{@link Format#JSONL_GZIP} writes one Ichnaea geosubmit (v2) item per scan per line. Items of
+ * scans with a position fix can be wrapped in {"items": [...]} and submitted to the geosubmit API
+ * as is; Ichnaea rejects items without a position, so those are only useful for analysis.</li>
+ * </ul>
+ */
+public class CellObservationExporter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Seven decimals like the MLS export itself, about a centimetre; never in scientific notation
+    private static final String CSV_COORDINATE_FORMAT = "%.7f";
+
+    private static final String CSV_HEADER = "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal";
+
+    public enum Format {
+        CSV_GZIP(".csv.gz"),
+        JSONL_GZIP(".jsonl.gz");
+
+        private final String mFileExtension;
+
+        Format(String fileExtension) {
+            mFileExtension = fileExtension;
+        }
+
+        public String getFileExtension() {
+            return mFileExtension;
+        }
+    }
+
+    private final Format mFormat;
+    private final Writer mWriter;
+
+    /**
+     * @param out    Where to write the compressed export, closed along with this exporter
+     * @param format Which format to write
+     */
+    public CellObservationExporter(OutputStream out, Format format) throws IOException {
+        mFormat = format;
+        mWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, BUFFER_SIZE), "UTF-8"), BUFFER_SIZE);
+        if (format == Format.CSV_GZIP) {
+            mWriter.write(CSV_HEADER);
+            mWriter.write('\n');
+        }
+    }
+
+    /**
+     * Append every cell seen in one scan.
+     *
+     * @param cells           The cells of the scan
+     * @param timestampMillis When the scan was taken, in milliseconds since the epoch
+     * @param position        The device's position at the time, or null if unknown
+     */
+    public void write(List<GeneralCellInfo> cells, long timestampMillis, @Nullable Location position) throws IOException {
+        if (mFormat == Format.CSV_GZIP) {
+            for (GeneralCellInfo cell : cells) {
+                writeCsvRow(cell, timestampMillis, position);
+            }
+        } else {
+            writeGeosubmitItem(cells, timestampMillis, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void writeCsvRow(GeneralCellInfo cell, long timestampMillis, @Nullable Location position) throws IOException {
+        Writer w = mWriter;
+        w.write(getMlsRadio(cell));
+        w.write(',');
+        writeCsvInt(cell.isMCCKnown(), cell.getMobileCountryCode());
+        writeCsvInt(cell.isMNCKnown(), cell.getMobileNetworkCode());
+        writeCsvInt(cell.isAreaCodeKnown(), cell.getAreaCode());
+        writeCsvInt(cell.isIdentityKnown(), cell.getCellIdentity());
+        writeCsvInt(cell.isScramblingCodeKnown(), cell.getScramblingCode());
+        if (position != null) {
+            w.write(String.format(Locale.US, CSV_COORDINATE_FORMAT, position.getLongitude()));
+            w.write(',');
+            w.write(String.format(Locale.US, CSV_COORDINATE_FORMAT, position.getLatitude()));
+            w.write(',');
+            writeCsvInt(position.hasAccuracy(), Math.round(position.getAccuracy()));
+        } else {
+            w.write(",,,");
+        }
+        String seconds = Long.toString(timestampMillis / 1000);
+        w.write("1,1,");
+        w.write(seconds);
+        w.write(',');
+        w.write(seconds);
+        w.write(',');
+        if (cell.isStrengthKnown()) {
+            w.write(Integer.toString(cell.getDbmStrength()));
+        }
+        w.write('\n');
+    }
+
+    private void writeCsvInt(boolean known, int value) throws IOException {
+        if (known) {
+            mWriter.write(Integer.toString(value));
+        }
+        mWriter.write(',');
+    }
+
+    private void writeGeosubmitItem(List<GeneralCellInfo> cells, long timestampMillis, @Nullable Location position) throws IOException {
+        try {
+            JSONArray towers = new JSONArray();
+            for (GeneralCellInfo cell : cells) {
+                JSONObject tower = new JSONObject();
+                tower.put("radioType", cell.getCellType().toLowerCase());
+                if (cell.isMCCKnown()) {
+                    tower.put("mobileCountryCode", cell.getMobileCountryCode());
+                }
+                if (cell.isMNCKnown()) {
+                    tower.put("mobileNetworkCode", cell.getMobileNetworkCode());
+                }
+                if (cell.isAreaCodeKnown()) {
+                    tower.put("locationAreaCode", cell.getAreaCode());
+                }
+                if (cell.isIdentityKnown()) {
+                    tower.put("cellId", cell.getCellIdentity());
+                }
+                if (cell.isScramblingCodeKnown()) {
+                    tower.put("primaryScramblingCode", cell.getScramblingCode());
+                }
+                if (cell.isStrengthKnown()) {
+                    tower.put("signalStrength", cell.getDbmStrength());
+                    tower.put("asu", cell.getAsuStrength());
+                }
+                tower.put("serving", cell.isRegistered() ? 1 : 0);
+                towers.put(tower);
+            }
+            JSONObject item = new JSONObject();
+            item.put("timestamp", timestampMillis);
+            if (position != null) {
+                item.put("position", toGeosubmitPosition(position, timestampMillis));
+            }
+            item.put("cellTowers", towers);
+            mWriter.write(item.toString());
+            mWriter.write('\n');
+        } catch (JSONException e) {
+            throw new IOException("Unable to assemble geosubmit item", e);
+        }
+    }
+
+    private static JSONObject toGeosubmitPosition(Location position, long timestampMillis) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("latitude", position.getLatitude());
+        json.put("longitude", position.getLongitude());
+        if (position.hasAccuracy()) {
+            json.put("accuracy", position.getAccuracy());
+        }
+        if (position.hasAltitude()) {
+            json.put("altitude", position.getAltitude());
+        }
+        if (position.hasBearing()) {
+            json.put("heading", position.getBearing());
+        }
+        if (position.hasSpeed()) {
+            json.put("speed", position.getSpeed());
+        }
+        // How much older the fix is than the scan
+        json.put("age", Math.max(0, timestampMillis - position.getTime()));
+        json.put("source", LocationManager.GPS_PROVIDER.equals(position.getProvider()) ? "gps" : "fused");
+        return json;
+    }
+
+    /**
+     * The MLS cell export calls WCDMA "UMTS", everything else matches our network type names.
+     */
+    private static String getMlsRadio(GeneralCellInfo cell) {
+        if (GeneralCellInfo.NETWORK_TYPE_WCDMA.equals(cell.getCellType())) {
+            return "UMTS";
+        }
+        return cell.getCellType();
+    }
+}
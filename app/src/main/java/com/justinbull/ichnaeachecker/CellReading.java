@@ -0,0 +1,271 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.telephony.CellIdentityCdma;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellSignalStrength;
+import android.telephony.TelephonyManager;
+
+/**
+ * The latest reading of one cell during a scanning session. Unlike {@link GeneralCellInfo} it is
+ * mutable: a {@link GeneralCellInfoFactory.Recycler} keeps one reading per cell and overwrites its
+ * registration and signal fields on every scan, so a continuous scan allocates nothing for cells it
+ * already knows.
+ *
+ * This is also the one place the fields of each {@link android.telephony.CellInfo} subclass are
+ * mapped to their network agnostic equivalents. Immutable copies for the UI, caches and exports are
+ * made by {@link #snapshot()}.
+ *
+ * Not thread-safe: update and read it on the scanning thread, and hand snapshots to other threads.
+ */
+public final class CellReading {
+    // Identifies the cell, see isSameCell()
+    private String mCellType;
+    private int mNetworkType;
+    private int mCellIdentity;
+    private int mMobileCountryCode;
+    private int mMobileNetworkCode;
+    private int mAreaCode;
+    private long mCellKey;
+    private boolean mIsFullyKnown;
+
+    // Overwritten by updateFrom()
+    private boolean mIsRegistered;
+    private int mScramblingCode;
+    private int mDbmStrength;
+    private int mAsuStrength;
+    private int mSignalLevel;
+    private int mRsrp;
+
+    private GeneralCellInfo mSnapshot;
+
+    // Scan this reading was last matched in, maintained by the recycler
+    int mLastSeenScan;
+
+    CellReading() {
+    }
+
+    CellReading(CellReading other) {
+        set(other.mCellType, other.mIsRegistered, other.mCellIdentity, other.mMobileCountryCode,
+                other.mMobileNetworkCode, other.mScramblingCode, other.mAreaCode,
+                other.mDbmStrength, other.mAsuStrength, other.mSignalLevel, other.mRsrp);
+    }
+
+    /**
+     * On LTE the dBm reported by {@link CellSignalStrength#getDbm()} is the RSRP. RSRQ and RSSNR
+     * are only public from API 26, past the SDK this app compiles against.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    void read(CellInfoLte cell) {
+        CellIdentityLte identity = cell.getCellIdentity();
+        CellSignalStrength strength = cell.getCellSignalStrength();
+        set(GeneralCellInfo.NETWORK_TYPE_LTE, cell.isRegistered(), identity.getCi(),
+                identity.getMcc(), identity.getMnc(), identity.getPci(), identity.getTac(),
+                strength.getDbm(), strength.getAsuLevel(), strength.getLevel(), strength.getDbm());
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    void read(CellInfoGsm cell) {
+        CellIdentityGsm identity = cell.getCellIdentity();
+        CellSignalStrength strength = cell.getCellSignalStrength();
+        // GSM doesn't have scrambling codes
+        set(GeneralCellInfo.NETWORK_TYPE_GSM, cell.isRegistered(), identity.getCid(),
+                identity.getMcc(), identity.getMnc(), Integer.MAX_VALUE, identity.getLac(),
+                strength.getDbm(), strength.getAsuLevel(), strength.getLevel(), Integer.MAX_VALUE);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    void read(CellInfoWcdma cell) {
+        CellIdentityWcdma identity = cell.getCellIdentity();
+        CellSignalStrength strength = cell.getCellSignalStrength();
+        set(GeneralCellInfo.NETWORK_TYPE_WCDMA, cell.isRegistered(), identity.getCid(),
+                identity.getMcc(), identity.getMnc(), identity.getPsc(), identity.getLac(),
+                strength.getDbm(), strength.getAsuLevel(), strength.getLevel(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * CDMA has no MCC/MNC/LAC/CID of its own, so the closest equivalents are mapped in their place
+     * the same way OpenCellID and Ichnaea do: SID as the network code, NID as the area code and
+     * BID as the cell identity. The country code is never broadcast by the cell, so it has to come
+     * from the network the device is on, see {@link GeneralCellInfoFactory#getNetworkCountryCode(TelephonyManager)}.
+     *
+     * @param mobileCountryCode MCC of the serving network, or Integer.MAX_VALUE if unknown
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    void read(CellInfoCdma cell, int mobileCountryCode) {
+        CellIdentityCdma identity = cell.getCellIdentity();
+        CellSignalStrength strength = cell.getCellSignalStrength();
+        // CDMA uses PN offsets (not exposed) for scrambling
+        set(GeneralCellInfo.NETWORK_TYPE_CDMA, cell.isRegistered(), identity.getBasestationId(),
+                mobileCountryCode, identity.getSystemId(), Integer.MAX_VALUE, identity.getNetworkId(),
+                strength.getDbm(), strength.getAsuLevel(), strength.getLevel(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Also used by tests, to make readings without a {@link android.telephony.CellInfo}.
+     */
+    void set(String cellType, boolean isRegistered, int cellIdentity, int mobileCountryCode, int mobileNetworkCode, int scramblingCode, int areaCode, int dbmStrength, int asuStrength, int signalLevel, int rsrp) {
+        mCellType = cellType;
+        mNetworkType = GeneralCellInfo.getNetworkTypeIndex(cellType);
+        mCellIdentity = cellIdentity;
+        mMobileCountryCode = mobileCountryCode;
+        mMobileNetworkCode = mobileNetworkCode;
+        mAreaCode = areaCode;
+        mCellKey = GeneralCellInfo.packCellKey(mobileCountryCode, mobileNetworkCode, areaCode, cellIdentity);
+        mIsFullyKnown = GeneralCellInfo.isFullyKnown(mNetworkType, cellIdentity, mobileCountryCode,
+                mobileNetworkCode, areaCode);
+        mIsRegistered = isRegistered;
+        mScramblingCode = scramblingCode;
+        mDbmStrength = dbmStrength;
+        mAsuStrength = asuStrength;
+        mSignalLevel = signalLevel;
+        mRsrp = rsrp;
+        mSnapshot = null;
+    }
+
+    /**
+     * Fully known cells are the same if their {@link CellKey}s are. The others are only told apart
+     * by their scrambling code, so it has to match as well.
+     */
+    boolean isSameCell(CellReading other) {
+        if (mNetworkType != other.mNetworkType || mCellKey != other.mCellKey
+                || mIsFullyKnown != other.mIsFullyKnown || !mCellType.equals(other.mCellType)) {
+            return false;
+        }
+        return mIsFullyKnown || (mCellIdentity == other.mCellIdentity
+                && mMobileCountryCode == other.mMobileCountryCode
+                && mMobileNetworkCode == other.mMobileNetworkCode
+                && mAreaCode == other.mAreaCode
+                && mScramblingCode == other.mScramblingCode);
+    }
+
+    /**
+     * Take the registration and signal fields of a newer reading of the same cell.
+     *
+     * @return true if any of them changed
+     */
+    boolean updateFrom(CellReading other) {
+        if (mIsRegistered == other.mIsRegistered
+                && mScramblingCode == other.mScramblingCode
+                && mDbmStrength == other.mDbmStrength
+                && mAsuStrength == other.mAsuStrength
+                && mSignalLevel == other.mSignalLevel
+                && mRsrp == other.mRsrp) {
+            return false;
+        }
+        mIsRegistered = other.mIsRegistered;
+        mScramblingCode = other.mScramblingCode;
+        mDbmStrength = other.mDbmStrength;
+        mAsuStrength = other.mAsuStrength;
+        mSignalLevel = other.mSignalLevel;
+        mRsrp = other.mRsrp;
+        mSnapshot = null;
+        return true;
+    }
+
+    /**
+     * @return An immutable copy of the current values, the same instance until the reading changes
+     */
+    public GeneralCellInfo snapshot() {
+        GeneralCellInfo snapshot = mSnapshot;
+        if (snapshot == null) {
+            snapshot = new GeneralCellInfo(this);
+            mSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    public String getCellType() {
+        return mCellType;
+    }
+
+    /**
+     * @return The position of the cell type in {@link GeneralCellInfo#NETWORKS}, or -1 if unknown
+     */
+    public int getNetworkTypeIndex() {
+        return mNetworkType;
+    }
+
+    public boolean isRegistered() {
+        return mIsRegistered;
+    }
+
+    public int getCellIdentity() {
+        return mCellIdentity;
+    }
+
+    public int getMobileCountryCode() {
+        return mMobileCountryCode;
+    }
+
+    public int getMobileNetworkCode() {
+        return mMobileNetworkCode;
+    }
+
+    public int getScramblingCode() {
+        return mScramblingCode;
+    }
+
+    public int getAreaCode() {
+        return mAreaCode;
+    }
+
+    public int getDbmStrength() {
+        return mDbmStrength;
+    }
+
+    public int getAsuStrength() {
+        return mAsuStrength;
+    }
+
+    public int getSignalLevel() {
+        return mSignalLevel;
+    }
+
+    public int getRsrp() {
+        return mRsrp;
+    }
+
+    /**
+     * @return The cell's packed key, only meaningful if {@link #isFullyKnown()}
+     * @see GeneralCellInfo#packCellKey(int, int, int, int)
+     */
+    public long getCellKey() {
+        return mCellKey;
+    }
+
+    public boolean isFullyKnown() {
+        return mIsFullyKnown;
+    }
+}
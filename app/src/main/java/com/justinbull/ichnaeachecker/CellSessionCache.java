@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Persists the cells of the most recent scan, so the list can be shown straight away on the next
+ * launch while a fresh scan is still running.
+ */
+public class CellSessionCache {
+    private static final String TAG = "CellSessionCache";
+
+    private static final Type CELL_LIST_TYPE = new TypeToken<List<GeneralCellInfo>>() {}.getType();
+
+    private final File mFile;
+    private Gson mGson;
+
+    public CellSessionCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Blocking, don't call from the main thread.
+     *
+     * @return The cells from the last saved session, or null if there is none or it's unreadable
+     */
+    @Nullable
+    public List<GeneralCellInfo> load() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(mFile), "UTF-8");
+            return getGson().fromJson(reader, CELL_LIST_TYPE);
+        } catch (IOException | JsonParseException e) {
+            Log.w(TAG, "load: Unable to read cached session, ignoring it", e);
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Blocking, don't call from the main thread. Writes to a temporary file of its own first, so a
+     * crash mid-write never leaves a truncated session behind and concurrent saves never write to
+     * the same file.
+     */
+    public void save(List<GeneralCellInfo> cells) {
+        File tmpFile = null;
+        Writer writer = null;
+        try {
+            tmpFile = File.createTempFile(mFile.getName(), ".tmp", mFile.getParentFile());
+            writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+            getGson().toJson(cells, CELL_LIST_TYPE, writer);
+            writer.close();
+            writer = null;
+            if (tmpFile.renameTo(mFile)) {
+                tmpFile = null;
+            } else {
+                Log.w(TAG, "save: Unable to replace cached session");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "save: Unable to cache session", e);
+        } finally {
+            closeQuietly(writer);
+            if (tmpFile != null && !tmpFile.delete()) {
+                Log.w(TAG, "save: Unable to delete " + tmpFile);
+            }
+        }
+    }
+
+    /**
+     * Gson is built on first use, on a worker thread, rather than along with the activity.
+     */
+    private synchronized Gson getGson() {
+        if (mGson == null) {
+            mGson = new Gson();
+        }
+        return mGson;
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "closeQuietly: ", e);
+        }
+    }
+}
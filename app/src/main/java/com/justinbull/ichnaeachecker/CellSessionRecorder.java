@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Records a session of scans to one file per {@link CellObservationExporter.Format}, appending
+ * every scan as it comes in so a session of any length is streamed to disk rather than held in
+ * memory. The files are named after the time the session started.
+ *
+ * Writing happens on a worker thread per session, so {@link #record(List, long, Location)} is
+ * cheap to call after every scan. Must be used from one thread.
+ */
+public class CellSessionRecorder {
+    private static final String TAG = "CellSessionRecorder";
+
+    /**
+     * The state of one session, only touched on its worker thread so a session still being closed
+     * doesn't interfere with the next one.
+     */
+    private static class Session {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final List<CellObservationExporter> exporters = new ArrayList<>();
+        IOException error;
+        int scanCount;
+
+        void fail(IOException e) {
+            Log.e(TAG, "fail: Unable to record session, stopping", e);
+            error = e;
+            for (CellObservationExporter exporter : exporters) {
+                closeQuietly(exporter);
+            }
+            exporters.clear();
+        }
+    }
+
+    private Session mSession;
+
+    /**
+     * Start a new session, creating its files in the given directory.
+     *
+     * @throws IllegalStateException if a session is already being recorded
+     */
+    public void start(final File dir, final long startedAt) {
+        if (mSession != null) {
+            throw new IllegalStateException("Already recording");
+        }
+        final Session session = new Session();
+        mSession = session;
+        session.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (CellObservationExporter.Format format : CellObservationExporter.Format.values()) {
+                        File file = new File(dir, "session-" + startedAt + format.getFileExtension());
+                        FileOutputStream out = new FileOutputStream(file);
+                        CellObservationExporter exporter = null;
+                        try {
+                            exporter = new CellObservationExporter(out, format);
+                        } finally {
+                            if (exporter == null) {
+                                closeQuietly(out);
+                            }
+                        }
+                        session.exporters.add(exporter);
+                        Log.i(TAG, "start: Recording to " + file);
+                    }
+                } catch (IOException e) {
+                    session.fail(e);
+                }
+            }
+        });
+    }
+
+    public boolean isRecording() {
+        return mSession != null;
+    }
+
+    /**
+     * Append a scan to the session. Does nothing if no session is being recorded, or writing to it
+     * has already failed.
+     *
+     * @param position The device's position at the time of the scan, or null if unknown
+     */
+    public void record(final List<GeneralCellInfo> cells, final long timestampMillis, @Nullable final Location position) {
+        final Session session = mSession;
+        if (session == null) {
+            return;
+        }
+        session.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (session.error != null) {
+                    return;
+                }
+                try {
+                    for (CellObservationExporter exporter : session.exporters) {
+                        exporter.write(cells, timestampMillis, position);
+                    }
+                    session.scanCount++;
+                } catch (IOException e) {
+                    session.fail(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * End the session and close its files.
+     *
+     * @return The number of scans recorded, or an {@link java.util.concurrent.ExecutionException}
+     * with the first error writing the session ran into
+     * @throws IllegalStateException if no session is being recorded
+     */
+    public Future<Integer> stop() {
+        final Session session = mSession;
+        if (session == null) {
+            throw new IllegalStateException("Not recording");
+        }
+        mSession = null;
+        Future<Integer> result = session.executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                for (CellObservationExporter exporter : session.exporters) {
+                    try {
+                        exporter.close();
+                    } catch (IOException e) {
+                        if (session.error == null) {
+                            session.error = e;
+                        }
+                    }
+                }
+                session.exporters.clear();
+                if (session.error != null) {
+                    throw session.error;
+                }
+                Log.i(TAG, "stop: Recorded " + session.scanCount + " scans");
+                return session.scanCount;
+            }
+        });
+        session.executor.shutdown();
+        return result;
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "closeQuietly: ", e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Keeps track of where the device is, for tagging cell observations with a position. While
+ * started, updates are requested from every enabled provider (GPS and network); otherwise the
+ * freshest last known fix is all there is.
+ *
+ * {@link #start()} and {@link #stop()} must be called from the main thread, {@link #getLocation()}
+ * may be called from any thread.
+ */
+public class DeviceLocationTracker implements LocationListener {
+    private static final String TAG = "DeviceLocationTracker";
+
+    /**
+     * Fixes older than this don't say much about where the device is now.
+     */
+    public static final long MAX_FIX_AGE_MILLIS = 60 * 1000;
+
+    private static final long MIN_UPDATE_INTERVAL_MILLIS = 1000;
+
+    private final LocationManager mLocationManager;
+    private volatile Location mLocation;
+    private boolean mStarted;
+
+    public DeviceLocationTracker(Context context) {
+        mLocationManager = (LocationManager) context.getApplicationContext().getSystemService(Context.LOCATION_SERVICE);
+    }
+
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        try {
+            for (String provider : getActiveProviders()) {
+                onLocationChanged(mLocationManager.getLastKnownLocation(provider));
+                mLocationManager.requestLocationUpdates(provider, MIN_UPDATE_INTERVAL_MILLIS, 0, this, Looper.getMainLooper());
+            }
+            mStarted = true;
+        } catch (SecurityException e) {
+            Log.w(TAG, "start: Location permission not granted", e);
+            mLocationManager.removeUpdates(this);
+        }
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mLocationManager.removeUpdates(this);
+        mStarted = false;
+    }
+
+    /**
+     * @return The freshest fix no older than {@link #MAX_FIX_AGE_MILLIS}, or null if there is none
+     */
+    @Nullable
+    public Location getLocation() {
+        Location location = mLocation;
+        if (location == null && !mStarted) {
+            location = getLastKnownLocation();
+        }
+        if (location == null || System.currentTimeMillis() - location.getTime() > MAX_FIX_AGE_MILLIS) {
+            return null;
+        }
+        return location;
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        if (location == null) {
+            return;
+        }
+        Location current = mLocation;
+        if (current == null) {
+            mLocation = location;
+            return;
+        }
+        long newer = location.getTime() - current.getTime();
+        // A coarse network fix shouldn't replace a recent GPS one that is more accurate
+        if (newer > MIN_UPDATE_INTERVAL_MILLIS || (newer >= 0 && (!location.hasAccuracy()
+                || !current.hasAccuracy() || location.getAccuracy() <= current.getAccuracy()))) {
+            mLocation = location;
+        }
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+    }
+
+    @Override
+    public void onProviderEnabled(String provider) {
+    }
+
+    @Override
+    public void onProviderDisabled(String provider) {
+    }
+
+    @Nullable
+    private Location getLastKnownLocation() {
+        Location best = null;
+        try {
+            for (String provider : getActiveProviders()) {
+                Location location = mLocationManager.getLastKnownLocation(provider);
+                if (location != null && (best == null || location.getTime() > best.getTime())) {
+                    best = location;
+                }
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "getLastKnownLocation: Location permission not granted", e);
+        }
+        return best;
+    }
+
+    private List<String> getActiveProviders() {
+        List<String> providers = mLocationManager.getProviders(true);
+        providers.remove(LocationManager.PASSIVE_PROVIDER);
+        return providers;
+    }
+}
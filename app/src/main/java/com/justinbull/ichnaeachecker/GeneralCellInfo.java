@@ -24,20 +24,7 @@
 
 package com.justinbull.ichnaeachecker;
 
-import android.annotation.TargetApi;
-import android.os.Build;
-import android.telephony.CellIdentityGsm;
-import android.telephony.CellIdentityLte;
-import android.telephony.CellIdentityWcdma;
-import android.telephony.CellInfoCdma;
-import android.telephony.CellInfoGsm;
-import android.telephony.CellInfoLte;
-import android.telephony.CellInfoWcdma;
-import android.telephony.CellSignalStrength;
-import android.util.Log;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Comparator;
 
 /**
  * Because jerks in standards bodies like to rename shit arbitrarily whe they essentially perform
@@ -49,10 +36,11 @@ import java.util.List;
  * A class to act as a common interface so the app can get information agnostic to the cell network
  * type.
  *
+ * Instances are immutable snapshots of a {@link CellReading}: no reference to the telephony objects
+ * is kept, so a cell can be shared between threads and sorted or rendered any number of times.
+ * Get them from {@link GeneralCellInfoFactory}.
  */
-public class GeneralCellInfo {
-    private static final String TAG = "GeneralCellInfo";
-
+public final class GeneralCellInfo {
     public static final String NETWORK_TYPE_LTE = "LTE";
     public static final String NETWORK_TYPE_GSM = "GSM";
     public static final String NETWORK_TYPE_WCDMA = "WCDMA";
@@ -60,16 +48,41 @@ public class GeneralCellInfo {
     public static final String[] NETWORKS = {NETWORK_TYPE_LTE, NETWORK_TYPE_GSM, NETWORK_TYPE_WCDMA,
             NETWORK_TYPE_CDMA};
 
-    protected String mCellType; // LTE, GSM, WCDMA, or CDMA
-    protected boolean mIsRegistered;
-    protected int mCellIdentity; // aka CID (GSM, WCDMA) or CI (LTE)
-    protected int mMobileCountryCode;
-    protected int mMobileNetworkCode;
-    protected int mScramblingCode; // aka PSC (GSM, WCDMA) or PCI (LTE)
-    protected int mAreaCode; // aka LAC (GSM, WCDMA) or TAC (LTE)
-    protected CellSignalStrength mStrength;
+    /**
+     * Orders cells strongest first by ASU level, the order the cell list is displayed in.
+     */
+    public static final Comparator<GeneralCellInfo> STRONGEST_FIRST = new Comparator<GeneralCellInfo>() {
+        @Override
+        public int compare(GeneralCellInfo lhs, GeneralCellInfo rhs) {
+            if (lhs.mAsuStrength == rhs.mAsuStrength) {
+                return 0;
+            }
+            return lhs.mAsuStrength > rhs.mAsuStrength ? -1 : 1;
+        }
+    };
+
+    private final String mCellType; // LTE, GSM, WCDMA, or CDMA
+    private final boolean mIsRegistered;
+    private final int mCellIdentity; // aka CID (GSM, WCDMA), CI (LTE) or BID (CDMA)
+    private final int mMobileCountryCode;
+    private final int mMobileNetworkCode; // aka SID (CDMA)
+    private final int mScramblingCode; // aka PSC (GSM, WCDMA) or PCI (LTE)
+    private final int mAreaCode; // aka LAC (GSM, WCDMA), TAC (LTE) or NID (CDMA)
+    private final int mDbmStrength;
+    private final int mAsuStrength;
+    private final int mSignalLevel; // 0 (none or unknown) to 4 (great)
+    private final int mRsrp; // LTE only
+    private final boolean mIsFullyKnown;
+
+    // Lazily cached like String#hashCode(); racing threads at worst compute the same value twice
+    private transient String mToString;
+
+    public GeneralCellInfo(String cellType, boolean isRegistered, int cellIdentity, int mobileCountryCode, int mobileNetworkCode, int scramblingCode, int areaCode, int dbmStrength, int asuStrength, int signalLevel) {
+        this(cellType, isRegistered, cellIdentity, mobileCountryCode, mobileNetworkCode,
+                scramblingCode, areaCode, dbmStrength, asuStrength, signalLevel, Integer.MAX_VALUE);
+    }
 
-    public GeneralCellInfo(String cellType, boolean isRegistered, int cellIdentity, int mobileCountryCode, int mobileNetworkCode, int scramblingCode, int areaCode, CellSignalStrength strength) {
+    private GeneralCellInfo(String cellType, boolean isRegistered, int cellIdentity, int mobileCountryCode, int mobileNetworkCode, int scramblingCode, int areaCode, int dbmStrength, int asuStrength, int signalLevel, int rsrp) {
         mCellType = cellType;
         mIsRegistered = isRegistered;
         mCellIdentity = cellIdentity;
@@ -77,50 +90,28 @@ public class GeneralCellInfo {
         mMobileNetworkCode = mobileNetworkCode;
         mScramblingCode = scramblingCode;
         mAreaCode = areaCode;
-        mStrength = strength;
-    }
-
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    public GeneralCellInfo(CellInfoLte cell) {
-        CellIdentityLte identity = cell.getCellIdentity();
-        mCellType = NETWORK_TYPE_LTE;
-        mIsRegistered = cell.isRegistered();
-        mCellIdentity = identity.getCi();
-        mMobileCountryCode = identity.getMcc();
-        mMobileNetworkCode = identity.getMnc();
-        mScramblingCode = identity.getPci();
-        mAreaCode = identity.getTac();
-        mStrength = cell.getCellSignalStrength();
-    }
-
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    public GeneralCellInfo(CellInfoGsm cell) {
-        CellIdentityGsm identity = cell.getCellIdentity();
-        mCellType = NETWORK_TYPE_GSM;
-        mIsRegistered = cell.isRegistered();
-        mCellIdentity = identity.getCid();
-        mMobileCountryCode = identity.getMcc();
-        mMobileNetworkCode = identity.getMnc();
-        mScramblingCode = Integer.MAX_VALUE; // GSM doesn't have scrambling codes
-        mAreaCode = identity.getLac();
-        mStrength = cell.getCellSignalStrength();
-    }
-
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
-    public GeneralCellInfo(CellInfoWcdma cell) {
-        CellIdentityWcdma identity = cell.getCellIdentity();
-        mCellType = NETWORK_TYPE_WCDMA;
-        mIsRegistered = cell.isRegistered();
-        mCellIdentity = identity.getCid();
-        mMobileCountryCode = identity.getMcc();
-        mMobileNetworkCode = identity.getMnc();
-        mScramblingCode = identity.getPsc();
-        mAreaCode = identity.getLac();
-        mStrength = cell.getCellSignalStrength();
-    }
-
-    public GeneralCellInfo(CellInfoCdma cell) {
-        throw new UnsupportedOperationException("CDMA is not supported yet");
+        mDbmStrength = dbmStrength;
+        mAsuStrength = asuStrength;
+        mSignalLevel = signalLevel;
+        mRsrp = rsrp;
+        mIsFullyKnown = isFullyKnown(getNetworkTypeIndex(cellType), cellIdentity, mobileCountryCode,
+                mobileNetworkCode, areaCode);
+    }
+
+    GeneralCellInfo(CellReading reading) {
+        this(reading.getCellType(), reading.isRegistered(), reading.getCellIdentity(),
+                reading.getMobileCountryCode(), reading.getMobileNetworkCode(),
+                reading.getScramblingCode(), reading.getAreaCode(), reading.getDbmStrength(),
+                reading.getAsuStrength(), reading.getSignalLevel(), reading.getRsrp());
+    }
+
+    /**
+     * @return Whether a cell with these fields has all it takes to be looked up
+     */
+    static boolean isFullyKnown(int networkType, int cellIdentity, int mobileCountryCode, int mobileNetworkCode, int areaCode) {
+        return networkType != -1 && cellIdentity != Integer.MAX_VALUE
+                && mobileCountryCode != Integer.MAX_VALUE && mobileNetworkCode != Integer.MAX_VALUE
+                && areaCode != Integer.MAX_VALUE;
     }
 
     public String getCellType() {
@@ -128,11 +119,7 @@ public class GeneralCellInfo {
     }
 
     public boolean isCellTypeKnown() {
-        ArrayList<String> networks = new ArrayList<String>();
-        for (String network : NETWORKS) {
-            networks.add(network);
-        }
-        return networks.contains(getCellType());
+        return getNetworkTypeIndex() != -1;
     }
 
     public boolean isRegistered() {
@@ -187,11 +174,7 @@ public class GeneralCellInfo {
      * @return false if there is no PSC
      */
     public boolean hasScramblingCode() {
-        return mScramblingCode == Integer.MAX_VALUE;
-    }
-
-    public CellSignalStrength getStrength() {
-        return mStrength;
+        return mScramblingCode != Integer.MAX_VALUE;
     }
 
     public boolean isStrengthKnown() {
@@ -199,47 +182,140 @@ public class GeneralCellInfo {
     }
 
     public int getDbmStrength() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            if (mStrength == null) {
-                return Integer.MAX_VALUE;
-            }
-            return mStrength.getDbm();
-        }
-        Log.e(TAG, "getDbmStrength: Unable to get Dbm strength because SDK too low");
-        return Integer.MAX_VALUE;
+        return mDbmStrength;
     }
 
     public int getAsuStrength() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            if (mStrength == null) {
-                return Integer.MAX_VALUE;
+        return mAsuStrength;
+    }
+
+    /**
+     * @return Abstract signal level from 0 (none or unknown) to 4 (great)
+     */
+    public int getSignalLevel() {
+        return mSignalLevel;
+    }
+
+    /**
+     * @return Reference Signal Received Power in dBm for LTE cells, Integer.MAX_VALUE otherwise
+     */
+    public int getRsrp() {
+        return mRsrp;
+    }
+
+    /**
+     * Packs the identifying fields of a cell into a single long: MCC * 1000 + MNC in the top 20
+     * bits, the area code (LAC/TAC/NID) in the next 16 and the cell identity in the low 28, which
+     * is wide enough for any GSM, WCDMA, LTE or CDMA cell. Sorting packed keys groups cells by
+     * operator, then by area. The network type isn't included, see {@link #getNetworkTypeIndex()}.
+     */
+    public static long packCellKey(int mobileCountryCode, int mobileNetworkCode, int areaCode, int cellIdentity) {
+        return ((long) (mobileCountryCode * 1000 + mobileNetworkCode) << 44)
+                | ((long) (areaCode & 0xFFFF) << 28)
+                | (cellIdentity & 0xFFFFFFFL);
+    }
+
+    /**
+     * @return MCC * 1000 + MNC of a key made by {@link #packCellKey(int, int, int, int)}
+     */
+    public static int unpackOperator(long cellKey) {
+        return (int) (cellKey >>> 44);
+    }
+
+    /**
+     * @return The cell's packed key, only meaningful if {@link #isFullyKnown()}
+     * @see #packCellKey(int, int, int, int)
+     */
+    public long getCellKey() {
+        return packCellKey(mMobileCountryCode, mMobileNetworkCode, mAreaCode, mCellIdentity);
+    }
+
+    /**
+     * @return The position of the cell type in {@link #NETWORKS}, or -1 if unknown
+     */
+    public int getNetworkTypeIndex() {
+        return getNetworkTypeIndex(mCellType);
+    }
+
+    static int getNetworkTypeIndex(String cellType) {
+        for (int i = 0; i < NETWORKS.length; i++) {
+            if (NETWORKS[i].equals(cellType)) {
+                return i;
             }
-            return mStrength.getAsuLevel();
         }
-        Log.e(TAG, "getAsuStrength: Unable to get ASU Level strength because SDK too low");
-        return Integer.MAX_VALUE;
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GeneralCellInfo)) {
+            return false;
+        }
+        GeneralCellInfo that = (GeneralCellInfo) o;
+        return mIsRegistered == that.mIsRegistered
+                && mCellIdentity == that.mCellIdentity
+                && mMobileCountryCode == that.mMobileCountryCode
+                && mMobileNetworkCode == that.mMobileNetworkCode
+                && mScramblingCode == that.mScramblingCode
+                && mAreaCode == that.mAreaCode
+                && mDbmStrength == that.mDbmStrength
+                && mAsuStrength == that.mAsuStrength
+                && mSignalLevel == that.mSignalLevel
+                && mRsrp == that.mRsrp
+                && (mCellType == null ? that.mCellType == null : mCellType.equals(that.mCellType));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mCellType != null ? mCellType.hashCode() : 0;
+        result = 31 * result + (mIsRegistered ? 1 : 0);
+        result = 31 * result + mCellIdentity;
+        result = 31 * result + mMobileCountryCode;
+        result = 31 * result + mMobileNetworkCode;
+        result = 31 * result + mScramblingCode;
+        result = 31 * result + mAreaCode;
+        result = 31 * result + mDbmStrength;
+        result = 31 * result + mAsuStrength;
+        result = 31 * result + mSignalLevel;
+        result = 31 * result + mRsrp;
+        return result;
     }
 
     @Override
     public String toString() {
+        String string = mToString;
+        if (string != null) {
+            return string;
+        }
         final String unknown = "(UNKNOWN)";
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         sb.append("Cell:{");
         sb.append("isRegistered=").append(Boolean.toString(isRegistered())).append(" ");
         sb.append("Type=").append(mCellType).append(" ");
         sb.append("CI/CID=").append(isIdentityKnown() ? mCellIdentity : unknown).append(" ");
         sb.append("MCC=").append(isMCCKnown() ? mMobileCountryCode : unknown).append(" ");
         sb.append("MNC=").append(isMNCKnown() ? mMobileNetworkCode : unknown).append(" ");
+        if (isMCCKnown() && isMNCKnown()) {
+            String operator = NetworkOperators.getFriendlyName(mMobileCountryCode, mMobileNetworkCode);
+            if (!operator.isEmpty()) {
+                sb.append("Operator=").append(operator).append(" ");
+            }
+        }
         sb.append("PSC/PCI=").append(isScramblingCodeKnown() ? mScramblingCode : unknown).append(" ");
         sb.append("LAC/TAC=").append(isAreaCodeKnown() ? mAreaCode: unknown).append(" ");
-        sb.append("Dbm=").append(isStrengthKnown() ? getDbmStrength() : unknown).append(" ");
-        sb.append("ASU=").append(isStrengthKnown() ? getAsuStrength() : unknown);
+        sb.append("Dbm=").append(isStrengthKnown() ? mDbmStrength : unknown).append(" ");
+        sb.append("ASU=").append(isStrengthKnown() ? mAsuStrength : unknown);
         sb.append("}");
-        return sb.toString();
+        string = sb.toString();
+        mToString = string;
+        return string;
     }
 
     public boolean isFullyKnown() {
-        return isCellTypeKnown() && isMCCKnown() && isMNCKnown() && isAreaCodeKnown() && isIdentityKnown();
+        return mIsFullyKnown;
     }
 
     public String getFriendlyCellIdentity() {
@@ -24,55 +24,234 @@
 
 package com.justinbull.ichnaeachecker;
 
-import android.support.annotation.NonNull;
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.Nullable;
 import android.telephony.CellInfo;
 import android.telephony.CellInfoCdma;
 import android.telephony.CellInfoGsm;
 import android.telephony.CellInfoLte;
 import android.telephony.CellInfoWcdma;
 import android.telephony.TelephonyManager;
+import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class GeneralCellInfoFactory {
+    private static final String TAG = "GeneralCellInfoFactory";
+
+    /**
+     * Reads one concrete {@link CellInfo} subclass into a {@link CellReading}. The network country
+     * code is only used by network types whose cells don't broadcast their own (CDMA).
+     */
+    private interface Converter {
+        void read(CellInfo cell, int networkCountryCode, CellReading into);
+    }
+
+    /**
+     * Every {@link CellInfo} subclass is final, so an exact lookup on {@link Object#getClass()}
+     * finds the right converter in one hash probe instead of walking an instanceof chain.
+     */
+    private static final Map<Class<? extends CellInfo>, Converter> CONVERTERS =
+            new HashMap<Class<? extends CellInfo>, Converter>();
+
+    static {
+        CONVERTERS.put(CellInfoLte.class, new Converter() {
+            @Override
+            @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+            public void read(CellInfo cell, int networkCountryCode, CellReading into) {
+                into.read((CellInfoLte) cell);
+            }
+        });
+        CONVERTERS.put(CellInfoGsm.class, new Converter() {
+            @Override
+            @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+            public void read(CellInfo cell, int networkCountryCode, CellReading into) {
+                into.read((CellInfoGsm) cell);
+            }
+        });
+        CONVERTERS.put(CellInfoWcdma.class, new Converter() {
+            @Override
+            @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+            public void read(CellInfo cell, int networkCountryCode, CellReading into) {
+                into.read((CellInfoWcdma) cell);
+            }
+        });
+        CONVERTERS.put(CellInfoCdma.class, new Converter() {
+            @Override
+            @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+            public void read(CellInfo cell, int networkCountryCode, CellReading into) {
+                into.read((CellInfoCdma) cell, networkCountryCode);
+            }
+        });
+    }
+
     /**
      * Given a subclass of {@link CellInfo}, return a {@link GeneralCellInfo} representation, which
      * has a standard interface to access the various fields of differing cell network types (LTE,
-     * GSM, WCDMA)
+     * GSM, WCDMA, CDMA)
      *
-     * @param cell Any CellInfo subclass, e.g. CellInfoLte
-     * @return The GeneralCellInfo equivalent
+     * @param cell               Any CellInfo subclass, e.g. CellInfoLte
+     * @param networkCountryCode From {@link #getNetworkCountryCode(TelephonyManager)}
+     * @return The GeneralCellInfo equivalent, or null if the cell network type isn't supported
      */
-    public static GeneralCellInfo getInstance(CellInfo cell) {
-        if (cell instanceof CellInfoLte) {
-            return new GeneralCellInfo((CellInfoLte) cell);
+    @Nullable
+    public static GeneralCellInfo getInstance(CellInfo cell, int networkCountryCode) {
+        Converter converter = CONVERTERS.get(cell.getClass());
+        if (converter == null) {
+            return null;
         }
-        if (cell instanceof CellInfoGsm) {
-            return new GeneralCellInfo((CellInfoGsm) cell);
-        }
-        if (cell instanceof CellInfoWcdma) {
-            return new GeneralCellInfo((CellInfoWcdma) cell);
+        CellReading reading = new CellReading();
+        converter.read(cell, networkCountryCode, reading);
+        return reading.snapshot();
+    }
+
+    /**
+     * CDMA cells don't broadcast a country code, so theirs is taken from the network the device is
+     * on: the first three digits of {@link TelephonyManager#getNetworkOperator()}. Neighbouring
+     * cells across a border would get the wrong one, which is rare enough to live with.
+     *
+     * @return The MCC of the current network, or Integer.MAX_VALUE if not registered on any
+     */
+    public static int getNetworkCountryCode(TelephonyManager tm) {
+        String operator = tm.getNetworkOperator();
+        if (operator == null || operator.length() < 3) {
+            return Integer.MAX_VALUE;
         }
-        if (cell instanceof CellInfoCdma) {
-            return new GeneralCellInfo((CellInfoCdma) cell);
+        try {
+            return Integer.parseInt(operator.substring(0, 3));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "getNetworkCountryCode: Unexpected network operator " + operator);
+            return Integer.MAX_VALUE;
         }
-        return null;
     }
 
     /**
-     * Given a list of {@link CellInfo} implemented objects from {@link TelephonyManager#getAllCellInfo()}
-     * return an equivalent list of {@link GeneralCellInfo} which has a standard interface to access
-     * the various fields of differing cell network types (LTE, GSM, WCDMA)
+     * Converts repeated scans, keeping a mutable {@link CellReading} per cell for as long as the
+     * cell stays in view. A cell seen again is matched to its reading from the previous scan, by
+     * {@link CellKey} if it is fully known and by all of its identifying fields otherwise, and only
+     * its registration and signal fields are overwritten. Scanning every second so allocates
+     * nothing for known cells however much their signal fluctuates.
+     *
+     * Consumers take a {@link #snapshot()} of the latest scan, which is only rebuilt when something
+     * changed.
      *
-     * @param cells List of CellInfo-implementing objects
-     * @return A list of GeneralCellInfo objects
+     * With a handful of cells in view, matching is a linear probe over the previous scan, which
+     * beats hashing and doesn't have to allocate a key per cell.
+     *
+     * Not thread-safe; use one Recycler per scanning loop.
      */
-    public static List<GeneralCellInfo> getInstances(List<CellInfo> cells) {
-        ArrayList<GeneralCellInfo> generalCells = new ArrayList<GeneralCellInfo>();
-        for (CellInfo cell : cells) {
-            generalCells.add(getInstance(cell));
+    public static class Recycler {
+        private final CellReading mScratch = new CellReading();
+        private ArrayList<CellReading> mReadings = new ArrayList<CellReading>();
+        private ArrayList<CellReading> mPreviousReadings = new ArrayList<CellReading>();
+        private List<GeneralCellInfo> mSnapshot = Collections.emptyList();
+        private boolean mSnapshotStale;
+        private boolean mChanged;
+        private int mScanCount;
+
+        /**
+         * Bring the readings up to date with a new scan. Cells no longer in view are dropped.
+         *
+         * @param cells              List of CellInfo-implementing objects
+         * @param networkCountryCode From {@link #getNetworkCountryCode(TelephonyManager)}
+         * @return true if a cell appeared, disappeared, changed position in the scan or changed any
+         * of its fields
+         */
+        public boolean update(List<CellInfo> cells, int networkCountryCode) {
+            beginScan();
+            for (int i = 0, size = cells.size(); i < size; i++) {
+                CellInfo cell = cells.get(i);
+                Converter converter = CONVERTERS.get(cell.getClass());
+                if (converter == null) {
+                    Log.w(TAG, "update: Skipping unsupported cell type " + cell.getClass().getSimpleName());
+                    continue;
+                }
+                converter.read(cell, networkCountryCode, mScratch);
+                add(mScratch);
+            }
+            return endScan();
+        }
+
+        /**
+         * Start a new scan. The readings of the one before are kept aside for {@link #add(CellReading)}
+         * to match against, and the lists are swapped back and forth so no scan allocates one.
+         */
+        void beginScan() {
+            ArrayList<CellReading> previous = mReadings;
+            mReadings = mPreviousReadings;
+            mPreviousReadings = previous;
+            mReadings.clear();
+            mChanged = false;
+            mScanCount++;
+        }
+
+        /**
+         * Add the next cell of the current scan, in scan order.
+         *
+         * @param scanned Only read from, so it can be reused for the next cell
+         */
+        void add(CellReading scanned) {
+            CellReading reading = findReading(mPreviousReadings, scanned);
+            if (reading == null) {
+                reading = new CellReading(scanned);
+                mChanged = true;
+            } else if (reading.updateFrom(scanned)) {
+                mChanged = true;
+            }
+            reading.mLastSeenScan = mScanCount;
+            int position = mReadings.size();
+            if (position >= mPreviousReadings.size() || mPreviousReadings.get(position) != reading) {
+                mChanged = true;
+            }
+            mReadings.add(reading);
+        }
+
+        /**
+         * @return Whether the scan just finished differs from the one before, see
+         * {@link #update(List, int)}
+         */
+        boolean endScan() {
+            if (mReadings.size() != mPreviousReadings.size()) {
+                mChanged = true;
+            }
+            mSnapshotStale |= mChanged;
+            return mChanged;
+        }
+
+        /**
+         * @return An unmodifiable list of immutable cells of the latest scan, the very same list as
+         * the previous call returned if nothing changed in between
+         */
+        public List<GeneralCellInfo> snapshot() {
+            if (mSnapshotStale) {
+                ArrayList<GeneralCellInfo> generalCells = new ArrayList<GeneralCellInfo>(mReadings.size());
+                for (int i = 0, size = mReadings.size(); i < size; i++) {
+                    generalCells.add(mReadings.get(i).snapshot());
+                }
+                mSnapshot = Collections.unmodifiableList(generalCells);
+                mSnapshotStale = false;
+            }
+            return mSnapshot;
+        }
+
+        /**
+         * @return The reading of the same cell from the previous scan, unless already claimed by
+         * an earlier cell of this scan
+         */
+        @Nullable
+        private CellReading findReading(List<CellReading> previous, CellReading scanned) {
+            for (int i = 0, size = previous.size(); i < size; i++) {
+                CellReading known = previous.get(i);
+                if (known.mLastSeenScan != mScanCount && known.isSameCell(scanned)) {
+                    return known;
+                }
+            }
+            return null;
         }
-        return generalCells;
     }
 }
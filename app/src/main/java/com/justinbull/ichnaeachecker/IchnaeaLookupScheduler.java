@@ -0,0 +1,361 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Collects cell lookups and sends them in bursts instead of one at a time, so the cellular radio
+ * is woken up (and pays its tail energy) once per batch rather than once per cell.
+ *
+ * A batch is flushed as soon as one of these happens:
+ * <ul>
+ * <li>the radio is already up for some other reason (API 21+),</li>
+ * <li>the batch reaches its maximum size,</li>
+ * <li>the oldest pending lookup reaches its deadline.</li>
+ * </ul>
+ * Nothing is sent while the device dozes, has no connectivity, or (if disallowed) is on a metered
+ * network; the batch is held and flushed once that condition clears.
+ *
+ * The deadline is an inexact, non-wakeup alarm on elapsed realtime, so it keeps counting while the
+ * device sleeps but doesn't wake it up just to send lookups: an overdue batch goes out the next
+ * time the device is awake anyway.
+ *
+ * Each flush runs the whole batch through a {@link CellLookupChain} on one worker thread, so cells
+ * a cache or the offline data can answer never touch the network. The Geolocate API answers one
+ * position per request, so a batch can't be merged into a single request body without losing the
+ * per-cell answer; the remaining requests go out back to back over the shared keep-alive
+ * connection instead, which costs one radio wake-up.
+ *
+ * Must be used from the main thread, and callbacks are made on it. Call {@link #start()} and
+ * {@link #stop()} alongside the owning component's lifecycle.
+ */
+public class IchnaeaLookupScheduler {
+    private static final String TAG = "IchnaeaLookupScheduler";
+
+    static final String ACTION_DEADLINE = "com.justinbull.ichnaeachecker.action.LOOKUP_DEADLINE";
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 20;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Receives the outcome of a scheduled lookup, on the main thread.
+     */
+    public interface Callback {
+        void onLookupResult(GeneralCellInfo cell, CellLookupResult result);
+
+        /**
+         * The lookup couldn't get a definitive answer, e.g. because the request failed or its
+         * batch was cancelled.
+         */
+        void onLookupFailed(GeneralCellInfo cell, IOException e);
+    }
+
+    private static class PendingLookup {
+        final GeneralCellInfo cell;
+        final Callback callback;
+
+        PendingLookup(GeneralCellInfo cell, Callback callback) {
+            this.cell = cell;
+            this.callback = callback;
+        }
+    }
+
+    private final Context mContext;
+    private final CellLookupChain mLookupChain;
+    private final Executor mExecutor;
+    private final ConnectivityManager mConnectivityManager;
+    private final PowerManager mPowerManager;
+    private final AlarmManager mAlarmManager;
+    private final PendingIntent mDeadlineIntent;
+    private final Executor mMainThreadExecutor;
+    private final int mMaxBatchSize;
+    private final long mMaxDelayMillis;
+    private final List<PendingLookup> mPending = new ArrayList<>();
+    private boolean mAllowMetered = true;
+    private boolean mStarted;
+    private boolean mDeadlinePassed;
+    private long mDeadlineAt; // elapsedRealtime() of the oldest pending lookup's deadline
+
+    /**
+     * Fires when the deadline passes, and on connectivity and Doze changes so a batch held back by
+     * either goes out as soon as the device is able to send it.
+     */
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (ACTION_DEADLINE.equals(intent.getAction())) {
+                mDeadlinePassed = true;
+                flushIfAllowed("deadline");
+            } else if (mDeadlinePassed) {
+                flushIfAllowed("state change");
+            }
+        }
+    };
+
+    private Object mNetworkActiveListener; // ConnectivityManager.OnNetworkActiveListener on API 21+
+
+    public IchnaeaLookupScheduler(Context context, CellLookupChain lookupChain, Executor executor) {
+        this(context, lookupChain, executor, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param context        Any context, only the application context is retained
+     * @param lookupChain    Resolves the lookups of a flushed batch
+     * @param executor       Runs flushed batches, owned by the caller
+     * @param maxBatchSize   Flush as soon as this many lookups are pending
+     * @param maxDelayMillis Longest a lookup is held waiting for a better moment to send it
+     */
+    public IchnaeaLookupScheduler(Context context, CellLookupChain lookupChain, Executor executor, int maxBatchSize, long maxDelayMillis) {
+        this(context, lookupChain, executor, new Executor() {
+            private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable command) {
+                mHandler.post(command);
+            }
+        }, maxBatchSize, maxDelayMillis);
+    }
+
+    /**
+     * @param mainThreadExecutor Makes the callbacks, tests pass one that runs them right away
+     */
+    IchnaeaLookupScheduler(Context context, CellLookupChain lookupChain, Executor executor, Executor mainThreadExecutor, int maxBatchSize, long maxDelayMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        mContext = context.getApplicationContext();
+        mLookupChain = lookupChain;
+        mExecutor = executor;
+        mMainThreadExecutor = mainThreadExecutor;
+        mConnectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        mAlarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        Intent deadline = new Intent(ACTION_DEADLINE).setPackage(mContext.getPackageName());
+        mDeadlineIntent = PendingIntent.getBroadcast(mContext, 0, deadline, 0);
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param allowMetered false to hold batches until an unmetered network is available
+     */
+    public void setAllowMetered(boolean allowMetered) {
+        mAllowMetered = allowMetered;
+    }
+
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(ACTION_DEADLINE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        }
+        mContext.registerReceiver(mReceiver, filter);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            addNetworkActiveListener();
+        }
+        if (!mPending.isEmpty()) {
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME, mDeadlineAt, mDeadlineIntent);
+        }
+    }
+
+    /**
+     * Stops listening for radio and state changes. Pending lookups are kept, and go out with the
+     * next flush after {@link #start()} is called again or with {@link #flushNow()}.
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mContext.unregisterReceiver(mReceiver);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            removeNetworkActiveListener();
+        }
+        mAlarmManager.cancel(mDeadlineIntent);
+    }
+
+    /**
+     * Queue a cell to be looked up with the next batch.
+     *
+     * @throws IllegalArgumentException if the cell can't be looked up, same as
+     *                                  {@link IchnaeaRestClient#checkLookupPossible(GeneralCellInfo)}
+     */
+    public void enqueue(GeneralCellInfo cell, Callback callback) {
+        IchnaeaRestClient.checkLookupPossible(cell);
+        mPending.add(new PendingLookup(cell, callback));
+        if (mPending.size() == 1) {
+            mDeadlineAt = SystemClock.elapsedRealtime() + mMaxDelayMillis;
+            if (mStarted) {
+                mAlarmManager.set(AlarmManager.ELAPSED_REALTIME, mDeadlineAt, mDeadlineIntent);
+            }
+        }
+        if (mPending.size() >= mMaxBatchSize) {
+            flushIfAllowed("batch full");
+        } else if (isRadioActive()) {
+            flushIfAllowed("radio active");
+        }
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Send everything pending right away, e.g. when the user explicitly asked for a result.
+     */
+    public void flushNow() {
+        flush("explicit");
+    }
+
+    private void flushIfAllowed(String reason) {
+        if (!mStarted || mPending.isEmpty()) {
+            return;
+        }
+        if (isDeviceIdle()) {
+            Log.d(TAG, "flushIfAllowed: Holding " + mPending.size() + " lookups, device is dozing");
+            return;
+        }
+        NetworkInfo network = mConnectivityManager.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()) {
+            Log.d(TAG, "flushIfAllowed: Holding " + mPending.size() + " lookups, no connectivity");
+            return;
+        }
+        if (!mAllowMetered && ConnectivityManagerCompat.isActiveNetworkMetered(mConnectivityManager)) {
+            Log.d(TAG, "flushIfAllowed: Holding " + mPending.size() + " lookups, network is metered");
+            return;
+        }
+        flush(reason);
+    }
+
+    private void flush(String reason) {
+        mAlarmManager.cancel(mDeadlineIntent);
+        mDeadlinePassed = false;
+        if (mPending.isEmpty()) {
+            return;
+        }
+        Log.i(TAG, "flush: Sending " + mPending.size() + " lookups (" + reason + ")");
+        final List<PendingLookup> batch = new ArrayList<>(mPending);
+        mPending.clear();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0, size = batch.size(); i < size; i++) {
+                    PendingLookup lookup = batch.get(i);
+                    try {
+                        deliverResult(lookup, mLookupChain.resolve(lookup.cell));
+                    } catch (InterruptedIOException e) {
+                        Log.i(TAG, "flush: Batch cancelled, failing its last " + (size - i) + " lookups");
+                        for (int j = i; j < size; j++) {
+                            deliverFailure(batch.get(j), e);
+                        }
+                        return;
+                    } catch (IOException e) {
+                        deliverFailure(lookup, e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void deliverResult(final PendingLookup lookup, final CellLookupResult result) {
+        mMainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                lookup.callback.onLookupResult(lookup.cell, result);
+            }
+        });
+    }
+
+    private void deliverFailure(final PendingLookup lookup, final IOException e) {
+        mMainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                lookup.callback.onLookupFailed(lookup.cell, e);
+            }
+        });
+    }
+
+    private boolean isDeviceIdle() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mPowerManager.isDeviceIdleMode();
+    }
+
+    private boolean isRadioActive() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && mConnectivityManager.isDefaultNetworkActive();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void addNetworkActiveListener() {
+        ConnectivityManager.OnNetworkActiveListener listener = new ConnectivityManager.OnNetworkActiveListener() {
+            @Override
+            public void onNetworkActive() {
+                // May be called on a binder thread
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushIfAllowed("radio active");
+                    }
+                });
+            }
+        };
+        mConnectivityManager.addDefaultNetworkActiveListener(listener);
+        mNetworkActiveListener = listener;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void removeNetworkActiveListener() {
+        if (mNetworkActiveListener != null) {
+            mConnectivityManager.removeDefaultNetworkActiveListener(
+                    (ConnectivityManager.OnNetworkActiveListener) mNetworkActiveListener);
+            mNetworkActiveListener = null;
+        }
+    }
+}
@@ -54,28 +54,68 @@ public class IchnaeaRestClient {
     private static final String API_VERSION = "v1";
     private static final String API_KEY = "test"; // Official test API key for Ichnaea
 
-    private static AsyncHttpClient client = new AsyncHttpClient();
+    private static SyncHttpClient syncClient;
 
     /**
-     * Determine if cell is in Mozilla Location Service (MLS/Ichnaea) database
+     * Build the HTTP client off the main thread ahead of the first lookup, instead of on the main
+     * thread when this class is first loaded.
+     */
+    public static void warmUp() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getSyncClient();
+            }
+        }, TAG + "-warmUp").start();
+    }
+
+    private static synchronized SyncHttpClient getSyncClient() {
+        if (syncClient == null) {
+            syncClient = new SyncHttpClient();
+        }
+        return syncClient;
+    }
+
+    /**
+     * Determine if cell is in Mozilla Location Service (MLS/Ichnaea) database. The request is made
+     * on the calling thread and the handler has been called by the time this returns. For use from
+     * worker threads only.
+     *
+     * @param cell
+     * @param responseHandler
+     */
+    public static void geolocateBlocking(GeneralCellInfo cell, AsyncHttpResponseHandler responseHandler) {
+        checkLookupPossible(cell);
+        geolocate(getSyncClient(), cell.getCellType(), cell.getMobileCountryCode(),
+                cell.getMobileNetworkCode(), cell.getAreaCode(), cell.getCellIdentity(),
+                cell.getDbmStrength(), responseHandler);
+    }
+
+    /**
+     * Reject cells that can't be looked up before spending a network request on them: those missing
+     * identifying fields, and those whose MCC/MNC can't belong to any real network.
      *
-     * @see #geolocate(String, int, int, int, int, int, AsyncHttpResponseHandler)
      * @param cell
-     * @return
+     * @throws IllegalArgumentException if the cell can't be looked up
      */
-    public static RequestHandle geolocate(GeneralCellInfo cell, AsyncHttpResponseHandler responseHandler) {
+    public static void checkLookupPossible(GeneralCellInfo cell) {
         if (!cell.isFullyKnown()) {
             throw new IllegalArgumentException("Insufficient cell information for Ichnaea lookup");
         }
-        return geolocate(cell.getCellType(), cell.getMobileCountryCode(),
-                cell.getMobileNetworkCode(), cell.getAreaCode(), cell.getCellIdentity(),
-                cell.getDbmStrength(), responseHandler);
+        boolean plausible = GeneralCellInfo.NETWORK_TYPE_CDMA.equals(cell.getCellType())
+                ? NetworkOperators.isPlausibleCdma(cell.getMobileCountryCode(), cell.getMobileNetworkCode())
+                : NetworkOperators.isPlausible(cell.getMobileCountryCode(), cell.getMobileNetworkCode());
+        if (!plausible) {
+            throw new IllegalArgumentException("Impossible MCC/MNC " + cell.getMobileCountryCode()
+                    + "/" + cell.getMobileNetworkCode() + " for Ichnaea lookup");
+        }
     }
 
     /**
      * A partially implemented call to Geolocate API.
      *
      * Attempts to find the lat/lng location
+     * @param httpClient The client to make the request with
      * @param radioType
      * @param mcc
      * @param mnc
@@ -84,7 +124,7 @@ public class IchnaeaRestClient {
      * @param signalStrength
      */
     @Nullable
-    public static RequestHandle geolocate(String radioType, int mcc, int mnc, int lac, int cellId, int signalStrength, AsyncHttpResponseHandler responseHandler) {
+    private static RequestHandle geolocate(AsyncHttpClient httpClient, String radioType, int mcc, int mnc, int lac, int cellId, int signalStrength, AsyncHttpResponseHandler responseHandler) {
         try {
             JSONObject fallbacks = new JSONObject();
             fallbacks.put("ipf", false);
@@ -106,7 +146,7 @@ public class IchnaeaRestClient {
             towers.put(cellTower);
             jsonParams.put("cellTowers", towers);
 
-            return jsonPost("geolocate", jsonParams, responseHandler);
+            return jsonPost(httpClient, "geolocate", jsonParams, responseHandler);
         } catch (JSONException e) {
             Log.e(TAG, "geolocate: Unable to assemble JSON payload. Silently failing");
             e.printStackTrace();
@@ -116,15 +156,16 @@ public class IchnaeaRestClient {
 
     /**
      * Make a HTTP POST request to a URL with optional parameters
+     * @param httpClient The client to make the request with
      * @param url URL to make to POST request to
      * @param payload The POST parameters
      * @param responseHandler The callback object that will handle request results
      */
-    private static RequestHandle jsonPost(String url, JSONObject payload, AsyncHttpResponseHandler responseHandler) {
+    private static RequestHandle jsonPost(AsyncHttpClient httpClient, String url, JSONObject payload, AsyncHttpResponseHandler responseHandler) {
         try {
             StringEntity entity = new StringEntity(payload.toString());
             entity.setContentType("application/json");
-            return client.post(null, getAbsoluteUrl(url), entity, "application/json", responseHandler);
+            return httpClient.post(null, getAbsoluteUrl(url), entity, "application/json", responseHandler);
         } catch (UnsupportedEncodingException e) {
             // TODO deal with it
             Log.e(TAG, "jsonPost: Unable to serialize JSON payload. Silently failing");
@@ -27,11 +27,15 @@ package com.justinbull.ichnaeachecker;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.telephony.CellInfo;
@@ -39,37 +43,80 @@ import android.telephony.CellLocation;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
-import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.loopj.android.http.JsonHttpResponseHandler;
-import com.loopj.android.http.RequestHandle;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-
-import cz.msebera.android.httpclient.Header;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
 
+    private static final int MEMORY_CACHE_SIZE = 256;
+    private static final long PERSISTENT_CACHE_MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long RESCAN_INTERVAL_MILLIS = 1000;
+    private static final String STATE_SURVEYING = "surveying";
+    private static final String PREF_SURVEY_UNMETERED_ONLY = "survey_unmetered_only";
+
+    private final GeneralCellInfoFactory.Recycler mCellRecycler = new GeneralCellInfoFactory.Recycler();
+    private List<GeneralCellInfo> mScannedCells;
     private List<GeneralCellInfo> mVisibleCells;
     private List<GeneralCellInfo> mRegisteredCells = new ArrayList<>();
-    private ListAdapter mCellListAdapter;
+    private ArrayAdapter<GeneralCellInfo> mCellListAdapter;
+    private CellSessionCache mSessionCache;
+    private List<GeneralCellInfo> mSavedCells;
     private ListView mCellListView;
     private GeneralCellInfo mSelectedCell;
+    private PersistentCellResolver mPersistentResolver;
+    private OfflineCellResolver mOfflineResolver;
+    private CellChangeDetector mChangeDetector;
+    private final Set<CellKey> mReportedChanges = new HashSet<>();
+    // Lookups the user asked for, never queued behind the background work below
+    private final ExecutorService mLookupExecutor = Executors.newSingleThreadExecutor();
+    // Installing the bundled data and sending survey batches
+    private final ExecutorService mBackgroundExecutor = Executors.newSingleThreadExecutor();
+    private CellLookupChain mLookupChain;
+    private IchnaeaLookupScheduler mLookupScheduler;
+    private boolean mSurveying;
+    private boolean mSurveyUnmeteredOnly;
+    private final Set<CellKey> mSurveyedCells = new HashSet<>();
+    private int mSurveyFoundCount;
+    private int mSurveyMissingCount;
+    private CellSessionRecorder mSessionRecorder;
+    private DeviceLocationTracker mLocationTracker;
+    private boolean mInitialized;
+    private boolean mStarted;
+    private final Handler mRescanHandler = new Handler();
+    private final Runnable mInitialize = new Runnable() {
+        @Override
+        public void run() {
+            initialize();
+        }
+    };
+    private final Runnable mRescan = new Runnable() {
+        @Override
+        public void run() {
+            setCellInfo();
+            mRescanHandler.postDelayed(this, RESCAN_INTERVAL_MILLIS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -77,7 +124,13 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
-        setCellInfo();
+        mSurveying = savedInstanceState != null && savedInstanceState.getBoolean(STATE_SURVEYING);
+        // A session being recorded carries on in the activity recreated after a configuration change
+        mSessionRecorder = (CellSessionRecorder) getLastCustomNonConfigurationInstance();
+        if (mSessionRecorder == null) {
+            mSessionRecorder = new CellSessionRecorder();
+        }
+        mCellListAdapter = new ArrayAdapter<GeneralCellInfo>(this, android.R.layout.simple_list_item_1, new ArrayList<GeneralCellInfo>());
         mCellListView = (ListView) findViewById(R.id.cellListView);
         mCellListView.setAdapter(mCellListAdapter);
         mCellListView.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
@@ -113,14 +166,13 @@ public class MainActivity extends AppCompatActivity {
                 final Snackbar snack = Snackbar.make(view, "Checking Mozilla Location Services database...", Snackbar.LENGTH_INDEFINITE);
                 snack.show();
                 try {
-                    final RequestHandle handler = getIchnaeaLookup(snack);
-                    assert handler != null;
+                    final Future<CellLookupResult> lookup = getIchnaeaLookup(snack);
                     snack.setAction("CANCEL", new View.OnClickListener() {
                         @Override
                         public void onClick(View view) {
                             snack.setText("Cancelling lookup request...");
-                            if (!handler.isFinished()) {
-                                handler.cancel(true);
+                            if (!lookup.isDone()) {
+                                lookup.cancel(true);
                             } else {
                                 snack.setText("Request already finished!");
                                 snack.setDuration(Snackbar.LENGTH_LONG);
@@ -137,12 +189,136 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         });
+
+        // Everything else waits until the first frame is drawn, see initialize()
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs once the frame about to be drawn is done
+                mRescanHandler.post(mInitialize);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sets up everything that isn't needed to draw the first frame: the lookups, the scheduler's
+     * receivers, location updates and the first scan. Until then the survey and record actions are
+     * disabled and nothing is scanned.
+     */
+    private void initialize() {
+        IchnaeaRestClient.warmUp();
+        mSessionCache = new CellSessionCache(new File(getCacheDir(), "last_session.json"));
+        mBackgroundExecutor.execute(new CellDataInstaller(this));
+        mPersistentResolver = new PersistentCellResolver(this, PERSISTENT_CACHE_MAX_AGE_MILLIS);
+        mOfflineResolver = new OfflineCellResolver(new File(getFilesDir(), OfflineCellResolver.DEFAULT_FILE_NAME));
+        mChangeDetector = new CellChangeDetector(mOfflineResolver, CellChangeDetector.DEFAULT_TOLERANCE_FACTOR);
+        mLookupChain = createLookupChain();
+        mLookupScheduler = new IchnaeaLookupScheduler(this, mLookupChain, mBackgroundExecutor);
+        mSurveyUnmeteredOnly = getPreferences(MODE_PRIVATE).getBoolean(PREF_SURVEY_UNMETERED_ONLY, false);
+        mLookupScheduler.setAllowMetered(!mSurveyUnmeteredOnly);
+        mLookupScheduler.start();
+        mLocationTracker = new DeviceLocationTracker(this);
+        mInitialized = true;
+        supportInvalidateOptionsMenu();
+        setCellInfo();
+        if (mStarted && isRescanning()) {
+            if (mSurveying) {
+                updateSurveyStatus();
+            }
+            mLocationTracker.start();
+            mRescanHandler.postDelayed(mRescan, RESCAN_INTERVAL_MILLIS);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mStarted = true;
+        if (mInitialized && isRescanning()) {
+            mLocationTracker.start();
+            mRescanHandler.postDelayed(mRescan, RESCAN_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * The latest scan is cached here rather than after every scan, so rescanning every second
+     * doesn't write to flash every second too.
+     */
+    @Override
+    protected void onStop() {
+        mStarted = false;
+        mRescanHandler.removeCallbacks(mRescan);
+        if (mInitialized) {
+            mLocationTracker.stop();
+            saveSession();
+        }
+        super.onStop();
+    }
+
+    /**
+     * Saves on the serial executor shared by all AsyncTasks, so saves of successive activities
+     * (e.g. across a rotation) never overlap.
+     */
+    private void saveSession() {
+        final List<GeneralCellInfo> cells = mScannedCells;
+        if (cells == null || cells == mSavedCells) {
+            return;
+        }
+        mSavedCells = cells;
+        final CellSessionCache sessionCache = mSessionCache;
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                sessionCache.save(cells);
+            }
+        });
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mSessionRecorder;
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SURVEYING, mSurveying);
+    }
+
+    /**
+     * When the user leaves for good, lookups still waiting for a batch are sent off rather than
+     * dropped. Like any lookup still running, their answers end up in the lookup caches. Nothing is
+     * sent when the activity is only recreated, e.g. on rotation: the survey starts over in the new
+     * one and queues the cells again as it sees them. A session being recorded is handed on to the
+     * new activity in that case, and ends here otherwise.
+     */
+    @Override
+    protected void onDestroy() {
+        mRescanHandler.removeCallbacks(mInitialize);
+        if (!isChangingConfigurations() && mSessionRecorder.isRecording()) {
+            stopRecording();
+        }
+        if (mInitialized) {
+            mLookupScheduler.stop();
+            if (isFinishing()) {
+                mLookupScheduler.flushNow();
+            }
+        }
+        mLookupExecutor.shutdown();
+        mBackgroundExecutor.shutdown();
+        super.onDestroy();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_survey).setChecked(mSurveying).setEnabled(mInitialized);
+        menu.findItem(R.id.action_survey_unmetered).setChecked(mSurveyUnmeteredOnly).setEnabled(mInitialized);
+        menu.findItem(R.id.action_record).setChecked(mSessionRecorder.isRecording()).setEnabled(mInitialized);
         return true;
     }
 
@@ -157,6 +333,21 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_record) {
+            setRecording(!item.isChecked());
+            item.setChecked(mSessionRecorder.isRecording());
+            return true;
+        }
+        if (id == R.id.action_survey) {
+            item.setChecked(!item.isChecked());
+            setSurveying(item.isChecked());
+            return true;
+        }
+        if (id == R.id.action_survey_unmetered) {
+            item.setChecked(!item.isChecked());
+            setSurveyUnmeteredOnly(item.isChecked());
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -169,118 +360,394 @@ public class MainActivity extends AppCompatActivity {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
+    /**
+     * Scans for visible cells in the background, showing the last cached session first if this is
+     * the first scan since launch. Requests the location permission if it hasn't been granted.
+     * Does nothing until {@link #initialize()} has run, which starts the first scan itself.
+     */
     public void setCellInfo() {
+        if (!mInitialized) {
+            return;
+        }
         int tmPermCheck = ContextCompat.checkSelfPermission(MainActivity.this, android.Manifest.permission.ACCESS_COARSE_LOCATION);
         if (tmPermCheck == PackageManager.PERMISSION_GRANTED) {
-            TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN_MR1 && tm.getAllCellInfo() != null) {
-                mVisibleCells = GeneralCellInfoFactory.getInstances(tm.getAllCellInfo());
-                // Sort cells by strength
-                Collections.sort(mVisibleCells, new Comparator<GeneralCellInfo>() {
-                    @Override
-                    public int compare(GeneralCellInfo lhs, GeneralCellInfo rhs) {
-                        int lhsDbm = lhs.getAsuStrength();
-                        int rhsDbm = rhs.getAsuStrength();
-                        if (lhsDbm == rhsDbm) {
-                            return 0;
-                        }
-                        return lhsDbm > rhsDbm ? -1 : 1;
-                    }
-                });
-                mRegisteredCells.clear();
-                if (mVisibleCells.size() == 0) {
-                    Log.w(TAG, "setCellInfo: No visible cells (primary or neighbours), unable to do anything");
-                }
-                for (GeneralCellInfo cell : mVisibleCells) {
-                    Log.i(TAG, "Device aware of " + cell.toString());
-                    if (cell.isRegistered()) {
-                        mRegisteredCells.add(cell);
-                    }
-                }
-                if (mRegisteredCells.isEmpty()) {
-                    Log.w(TAG, "setCellInfo: No registered cells, nothing to select.");
-                    mSelectedCell = null;
-                } else {
-                    Log.i(TAG, "setCellInfo: Preselected strongest registered cell: " + mRegisteredCells.get(0));
-                    mSelectedCell = mRegisteredCells.get(0);
-                }
-            } else {
-                Log.e(TAG, "setCellInfo: Android device too old to use getAllCellInfo(), need to implement getCellLocation() fallback!");
-            }
-            mCellListAdapter = new ArrayAdapter<GeneralCellInfo>(this, android.R.layout.simple_list_item_1, mVisibleCells);
+            new CellScanTask(mScannedCells == null).execute();
         } else if (tmPermCheck == PackageManager.PERMISSION_DENIED) {
             if (ActivityCompat.shouldShowRequestPermissionRationale(MainActivity.this,
                     android.Manifest.permission.ACCESS_COARSE_LOCATION)) {
                 Toast.makeText(MainActivity.this, "Dude we need permissions", Toast.LENGTH_LONG).show();
             }
+            // Fine location is only used to tag recorded sessions with GPS fixes, scanning works without it
             ActivityCompat.requestPermissions(MainActivity.this,
-                    new String[]{android.Manifest.permission.ACCESS_COARSE_LOCATION},
+                    new String[]{android.Manifest.permission.ACCESS_COARSE_LOCATION, android.Manifest.permission.ACCESS_FINE_LOCATION},
                     Consts.REQUEST_COARSE_LOCATION);
         } else {
             Log.wtf(TAG, "setCellInfo: Received unknown int from ContextCompat.checkSelfPermission()");
         }
     }
 
-    public RequestHandle getIchnaeaLookup(final Snackbar snack) {
-        Log.i(TAG, "getIchnaeaLookup: Looking up " + mSelectedCell);
-        return IchnaeaRestClient.geolocate(mSelectedCell, new JsonHttpResponseHandler() {
+    /**
+     * Runs the telephony IPC and cell conversion off the main thread so the first frame isn't held
+     * up by it. Publishes the cached session as progress before the fresh scan result.
+     *
+     * If the device's position is known, the scanned cells are checked against their recorded
+     * positions too. The first scan seeds the change detector with the positions kept from earlier
+     * sessions, the detector reads the rest from the offline dataset as needed.
+     *
+     * Tasks share the default serial executor, so the (not thread-safe) recycler is never used by
+     * two scans at once.
+     */
+    private class CellScanTask extends AsyncTask<Void, List<GeneralCellInfo>, List<GeneralCellInfo>> {
+        private final boolean mLoadCachedSession;
+        private final Location mLocation = mLocationTracker.getLocation();
+        private final List<GeneralCellInfo> mChangedCells = new ArrayList<>();
+        private final List<CellChangeDetector.Change> mChanges = new ArrayList<>();
+
+        CellScanTask(boolean loadCachedSession) {
+            mLoadCachedSession = loadCachedSession;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected List<GeneralCellInfo> doInBackground(Void... params) {
+            if (mLoadCachedSession) {
+                List<GeneralCellInfo> cachedCells = mSessionCache.load();
+                if (cachedCells != null) {
+                    publishProgress(cachedCells);
+                }
+                mChangeDetector.recordPositions(mPersistentResolver.getAll());
+            }
+            if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                Log.e(TAG, "setCellInfo: Android device too old to use getAllCellInfo(), need to implement getCellLocation() fallback!");
+                return null;
+            }
+            TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
+            List<CellInfo> allCellInfo = tm.getAllCellInfo();
+            if (allCellInfo == null) {
+                Log.e(TAG, "setCellInfo: Device did not report any cell info");
+                return null;
+            }
+            mCellRecycler.update(allCellInfo, GeneralCellInfoFactory.getNetworkCountryCode(tm));
+            List<GeneralCellInfo> cells = mCellRecycler.snapshot();
+            if (mLocation != null) {
+                detectChanges(cells);
+            }
+            return cells;
+        }
+
+        private void detectChanges(List<GeneralCellInfo> cells) {
+            float fixAccuracy = mLocation.hasAccuracy() ? mLocation.getAccuracy() : 0;
+            for (GeneralCellInfo cell : cells) {
+                CellChangeDetector.Change change = mChangeDetector.observe(cell,
+                        mLocation.getLatitude(), mLocation.getLongitude(), fixAccuracy);
+                if (change == CellChangeDetector.Change.MOVED || change == CellChangeDetector.Change.NEW_IN_KNOWN_AREA) {
+                    mChangedCells.add(cell);
+                    mChanges.add(change);
+                }
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(List<GeneralCellInfo>... cachedCells) {
+            if (mScannedCells == null) {
+                Log.i(TAG, "setCellInfo: Showing " + cachedCells[0].size() + " cells from last session");
+                showCells(cachedCells[0], false);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(final List<GeneralCellInfo> scannedCells) {
+            if (scannedCells == null) {
+                return;
+            }
+            // Recorded sessions keep every scan, unchanged ones included, for their signal samples
+            mSessionRecorder.record(scannedCells, System.currentTimeMillis(), mLocation);
+            for (int i = 0; i < mChangedCells.size(); i++) {
+                reportChange(mChangedCells.get(i), mChanges.get(i));
+            }
+            if (scannedCells == mScannedCells) {
+                Log.d(TAG, "setCellInfo: Visible cells unchanged since last scan");
+                return;
+            }
+            boolean firstScan = mScannedCells == null;
+            mScannedCells = scannedCells;
+            showCells(scannedCells, !mSurveying || firstScan);
+            if (mSurveying) {
+                surveyCells(scannedCells);
+            }
+            if (firstScan && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
+                reportFullyDrawn();
+            }
+        }
+    }
+
+    /**
+     * Point out a cell worth re-surveying, once per cell for as long as this activity lives.
+     */
+    private void reportChange(GeneralCellInfo cell, CellChangeDetector.Change change) {
+        if (!mReportedChanges.add(CellKey.of(cell))) {
+            return;
+        }
+        Log.i(TAG, "reportChange: " + change + " " + cell);
+        String message = change == CellChangeDetector.Change.MOVED
+                ? "Cell " + cell.getFriendlyCellIdentity() + " seen far from where MLS places it"
+                : "Cell " + cell.getFriendlyCellIdentity() + " looks new to its area";
+        Snackbar.make(mCellListView, message, Snackbar.LENGTH_LONG).show();
+    }
+
+    private void showCells(List<GeneralCellInfo> cells, boolean preselect) {
+        mVisibleCells = new ArrayList<>(cells);
+        // Sort cells by strength
+        Collections.sort(mVisibleCells, GeneralCellInfo.STRONGEST_FIRST);
+        mRegisteredCells.clear();
+        if (mVisibleCells.size() == 0) {
+            Log.w(TAG, "setCellInfo: No visible cells (primary or neighbours), unable to do anything");
+        }
+        for (GeneralCellInfo cell : mVisibleCells) {
+            Log.i(TAG, "Device aware of " + cell.toString());
+            if (cell.isRegistered()) {
+                mRegisteredCells.add(cell);
+            }
+        }
+        mCellListAdapter.clear();
+        mCellListAdapter.addAll(mVisibleCells);
+        if (!preselect) {
+            return;
+        }
+        if (mRegisteredCells.isEmpty()) {
+            Log.w(TAG, "setCellInfo: No registered cells, nothing to select.");
+            mSelectedCell = null;
+        } else {
+            Log.i(TAG, "setCellInfo: Preselected strongest registered cell: " + mRegisteredCells.get(0));
+            mSelectedCell = mRegisteredCells.get(0);
+        }
+    }
+
+    /**
+     * While surveying, the cells are rescanned every second as long as this activity is visible,
+     * and every cell not seen before in this session is queued for a lookup. The lookups go out in
+     * batches whenever the radio is up anyway, see {@link IchnaeaLookupScheduler}.
+     */
+    private void setSurveying(boolean surveying) {
+        if (surveying == mSurveying) {
+            return;
+        }
+        mSurveying = surveying;
+        if (surveying) {
+            updateSurveyStatus();
+        }
+        updateRescanning();
+    }
+
+    /**
+     * Survey lookups can be held back until the device is on an unmetered network, to save mobile
+     * data. Lookups the user asks for with the button always go out right away.
+     */
+    private void setSurveyUnmeteredOnly(boolean unmeteredOnly) {
+        mSurveyUnmeteredOnly = unmeteredOnly;
+        mLookupScheduler.setAllowMetered(!unmeteredOnly);
+        getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_SURVEY_UNMETERED_ONLY, unmeteredOnly).apply();
+    }
+
+    /**
+     * While recording, the cells are rescanned every second as long as this activity is visible,
+     * and every scan is appended to a session in the app's external files directory as both
+     * compressed CSV and JSONL, tagged with the device's position if known. The files can be pulled
+     * off the device over USB once recording stops.
+     */
+    private void setRecording(boolean recording) {
+        if (recording == mSessionRecorder.isRecording()) {
+            return;
+        }
+        if (!recording) {
+            stopRecording();
+        } else {
+            File sessionDir = getExternalFilesDir(null);
+            if (sessionDir == null) {
+                Toast.makeText(MainActivity.this, "External storage unavailable", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            mSessionRecorder.start(sessionDir, System.currentTimeMillis());
+        }
+        updateRescanning();
+    }
+
+    /**
+     * Ends the session and tells the user where it went once its files are finished off. The toast
+     * is shown with the application context, so it still appears after this activity is gone.
+     */
+    private void stopRecording() {
+        final Future<Integer> session = mSessionRecorder.stop();
+        final Context appContext = getApplicationContext();
+        final File sessionDir = getExternalFilesDir(null);
+        new AsyncTask<Void, Void, Integer>() {
             @Override
-            public void onSuccess(int statusCode, Header[] headers, JSONObject response) {
+            protected Integer doInBackground(Void... params) {
                 try {
-                    Log.i(TAG, "onSuccess: Cell in database! Location is: " + response.get("location") + " for " + mSelectedCell);
-                    TextView text = (TextView) findViewById(R.id.topLevelText);
-                    assert text != null;
-                    text.setText("Cell " + mSelectedCell.getFriendlyCellIdentity() + " in database!");
-                    TextView textLat = (TextView) findViewById(R.id.latitudeText);
-                    TextView textLng = (TextView) findViewById(R.id.longitudeText);
-                    TextView textAcurracy = (TextView) findViewById(R.id.accuracyText);
-                    assert textLat != null;
-                    assert textLng != null;
-                    assert textAcurracy != null;
-                    textLat.setText("Latitude: " + Double.toString(response.getJSONObject("location").getDouble("lat")));
-                    textLng.setText("Longitude: " + Double.toString(response.getJSONObject("location").getDouble("lng")));
-                    textAcurracy.setText("Accuracy: " + Double.toString(response.getDouble("accuracy")) + " meters");
-                    textLat.setVisibility(View.VISIBLE);
-                    textLng.setVisibility(View.VISIBLE);
-                    textAcurracy.setVisibility(View.VISIBLE);
-                    Snackbar snackSuccess = Snackbar.make(snack.getView(), mSelectedCell.getCellType() + " Cell " + mSelectedCell.getFriendlyCellIdentity() + " in Ichnaea database!", Snackbar.LENGTH_LONG);
-                    snackSuccess.getView().setBackgroundColor(ContextCompat.getColor(MainActivity.this, R.color.colorSuccess));
-                    snackSuccess.show();
-                } catch (JSONException e) {
-                    e.printStackTrace();
+                    return session.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(TAG, "stopRecording: Unable to record session", e);
+                    return null;
                 }
             }
 
             @Override
-            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JSONObject errorResponse) {
+            protected void onPostExecute(Integer scanCount) {
+                Toast.makeText(appContext, scanCount != null ? "Recorded " + scanCount
+                        + " scans to " + sessionDir : "Recording failed", Toast.LENGTH_LONG).show();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private boolean isRescanning() {
+        return mSurveying || mSessionRecorder.isRecording();
+    }
+
+    private void updateRescanning() {
+        mRescanHandler.removeCallbacks(mRescan);
+        if (isRescanning()) {
+            mLocationTracker.start();
+            mRescanHandler.post(mRescan);
+        } else {
+            mLocationTracker.stop();
+        }
+    }
+
+    private void surveyCells(List<GeneralCellInfo> cells) {
+        for (GeneralCellInfo cell : cells) {
+            if (!cell.isFullyKnown() || !mSurveyedCells.add(CellKey.of(cell))) {
+                continue;
+            }
+            try {
+                mLookupScheduler.enqueue(cell, mSurveyCallback);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "surveyCells: Not looking up " + cell, e);
+            }
+        }
+        updateSurveyStatus();
+    }
+
+    private final IchnaeaLookupScheduler.Callback mSurveyCallback = new IchnaeaLookupScheduler.Callback() {
+        @Override
+        public void onLookupResult(GeneralCellInfo cell, CellLookupResult result) {
+            Log.i(TAG, "onLookupResult: " + result + " for " + cell);
+            if (result.isFound()) {
+                mSurveyFoundCount++;
+                mChangeDetector.recordPosition(cell, result.getLatitude(), result.getLongitude(), result.getAccuracyMeters());
+            } else {
+                mSurveyMissingCount++;
+            }
+            updateSurveyStatus();
+        }
+
+        @Override
+        public void onLookupFailed(GeneralCellInfo cell, IOException e) {
+            Log.w(TAG, "onLookupFailed: Will retry " + cell + " when next seen", e);
+            mSurveyedCells.remove(CellKey.of(cell));
+            updateSurveyStatus();
+        }
+    };
+
+    private void updateSurveyStatus() {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setSubtitle(mSurveyFoundCount + " in database, " + mSurveyMissingCount
+                    + " not, " + mLookupScheduler.getPendingCount() + " queued");
+        }
+    }
+
+    /**
+     * Cheapest first: answers already seen this session, then ones kept from earlier sessions, then
+     * a Bloom filter of known cells to rule out missing ones in a few memory reads, then an offline
+     * dataset for the positions of the rest, and the MLS API as a last resort. The filter and the
+     * dataset are used if they were bundled with the app (see {@link CellDataInstaller}) or copied
+     * onto the device.
+     */
+    private CellLookupChain createLookupChain() {
+        List<CellResolver> resolvers = new ArrayList<>();
+        resolvers.add(new MemoryCellResolver(MEMORY_CACHE_SIZE));
+        resolvers.add(mPersistentResolver);
+        resolvers.add(new BloomFilterCellResolver(new File(getFilesDir(), BloomFilterCellResolver.DEFAULT_FILE_NAME)));
+        resolvers.add(mOfflineResolver);
+        resolvers.add(new RemoteCellResolver());
+        return new CellLookupChain(mLookupExecutor, resolvers);
+    }
+
+    public Future<CellLookupResult> getIchnaeaLookup(final Snackbar snack) {
+        Log.i(TAG, "getIchnaeaLookup: Looking up " + mSelectedCell);
+        final GeneralCellInfo cell = mSelectedCell;
+        final Future<CellLookupResult> lookup = mLookupChain.lookup(cell);
+        new AsyncTask<Void, Void, CellLookupResult>() {
+            private boolean mCancelled;
+
+            @Override
+            protected CellLookupResult doInBackground(Void... params) {
                 try {
-                    if (statusCode == 404 && errorResponse.getJSONObject("error").getInt("code") == 404) {
-                        Log.i(TAG, "onFailure: Cell is not in database: " + mSelectedCell);
-                        TextView text = (TextView) findViewById(R.id.topLevelText);
-                        assert text != null;
-                        text.setText("NOT IN DATABASE!");
-                        TextView textLat = (TextView) findViewById(R.id.latitudeText);
-                        TextView textLng = (TextView) findViewById(R.id.longitudeText);
-                        TextView textAcurracy = (TextView) findViewById(R.id.accuracyText);
-                        textLat.setVisibility(View.INVISIBLE);
-                        textLng.setVisibility(View.INVISIBLE);
-                        textAcurracy.setVisibility(View.INVISIBLE);
-                    } else {
-                        Toast.makeText(MainActivity.this, "Unknown error occurred", Toast.LENGTH_SHORT).show();
-                    }
-                } catch (JSONException e) {
-                    Toast.makeText(MainActivity.this, "Unknown error occurred", Toast.LENGTH_SHORT).show();
-                    e.printStackTrace();
+                    return lookup.get();
+                } catch (CancellationException | InterruptedException e) {
+                    mCancelled = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "getIchnaeaLookup: Lookup failed for " + cell, e.getCause());
                 }
-                snack.dismiss();
+                return null;
             }
 
             @Override
-            public void onCancel() {
-                super.onCancel();
-                snack.dismiss();
+            protected void onPostExecute(CellLookupResult result) {
+                if (mCancelled) {
+                    snack.dismiss();
+                    return;
+                }
+                if (result == null) {
+                    Toast.makeText(MainActivity.this, "Unknown error occurred", Toast.LENGTH_SHORT).show();
+                    snack.dismiss();
+                    return;
+                }
+                if (result.isFound()) {
+                    showCellFound(cell, result, snack);
+                } else {
+                    showCellNotFound(cell);
+                    snack.dismiss();
+                }
             }
-        });
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return lookup;
+    }
+
+    private void showCellFound(GeneralCellInfo cell, CellLookupResult result, Snackbar snack) {
+        Log.i(TAG, "onSuccess: Cell in database! " + result + " for " + cell);
+        TextView text = (TextView) findViewById(R.id.topLevelText);
+        assert text != null;
+        text.setText("Cell " + cell.getFriendlyCellIdentity() + " in database!");
+        TextView textLat = (TextView) findViewById(R.id.latitudeText);
+        TextView textLng = (TextView) findViewById(R.id.longitudeText);
+        TextView textAcurracy = (TextView) findViewById(R.id.accuracyText);
+        assert textLat != null;
+        assert textLng != null;
+        assert textAcurracy != null;
+        textLat.setText("Latitude: " + Double.toString(result.getLatitude()));
+        textLng.setText("Longitude: " + Double.toString(result.getLongitude()));
+        textAcurracy.setText("Accuracy: " + Float.toString(result.getAccuracyMeters()) + " meters");
+        mChangeDetector.recordPosition(cell, result.getLatitude(), result.getLongitude(), result.getAccuracyMeters());
+        textLat.setVisibility(View.VISIBLE);
+        textLng.setVisibility(View.VISIBLE);
+        textAcurracy.setVisibility(View.VISIBLE);
+        Snackbar snackSuccess = Snackbar.make(snack.getView(), cell.getCellType() + " Cell " + cell.getFriendlyCellIdentity() + " in Ichnaea database!", Snackbar.LENGTH_LONG);
+        snackSuccess.getView().setBackgroundColor(ContextCompat.getColor(MainActivity.this, R.color.colorSuccess));
+        snackSuccess.show();
+    }
+
+    private void showCellNotFound(GeneralCellInfo cell) {
+        Log.i(TAG, "onFailure: Cell is not in database: " + cell);
+        TextView text = (TextView) findViewById(R.id.topLevelText);
+        assert text != null;
+        text.setText("NOT IN DATABASE!");
+        TextView textLat = (TextView) findViewById(R.id.latitudeText);
+        TextView textLng = (TextView) findViewById(R.id.longitudeText);
+        TextView textAcurracy = (TextView) findViewById(R.id.accuracyText);
+        textLat.setVisibility(View.INVISIBLE);
+        textLng.setVisibility(View.INVISIBLE);
+        textAcurracy.setVisibility(View.INVISIBLE);
     }
 }
 
@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Offline MCC/MNC to operator and country lookups.
+ *
+ * Backed by {@link NetworkOperatorTable}, which mccmnc.gradle generates from the CSV files in
+ * src/main/mccmnc as sorted primitive arrays, so every lookup is a binary search and nothing is
+ * parsed or allocated at startup.
+ */
+public final class NetworkOperators {
+    private static final int MAX_CDMA_SYSTEM_ID = 32767;
+
+    private NetworkOperators() {
+    }
+
+    /**
+     * @return The ISO 3166-1 alpha-2 code of the country the MCC is assigned to, XX for the shared
+     * MCCs of international networks, or null if the MCC isn't assigned at all
+     */
+    @Nullable
+    public static String getCountryCode(int mcc) {
+        int index = Arrays.binarySearch(NetworkOperatorTable.COUNTRY_MCCS, mcc);
+        return index >= 0 ? NetworkOperatorTable.COUNTRY_CODES[index] : null;
+    }
+
+    /**
+     * @return The operator's name, or null if the MCC/MNC pair isn't in the bundled dataset
+     */
+    @Nullable
+    public static String getOperatorName(int mcc, int mnc) {
+        if (mnc < 0 || mnc > 999) {
+            return null;
+        }
+        int index = Arrays.binarySearch(NetworkOperatorTable.OPERATOR_KEYS, mcc * 1000 + mnc);
+        return index >= 0 ? NetworkOperatorTable.OPERATOR_NAMES[index] : null;
+    }
+
+    /**
+     * Whether the MCC/MNC pair could possibly belong to a real network, i.e. the MCC is assigned
+     * and the MNC fits in three digits. The operator dataset is not complete, so an
+     * unlisted MNC is not reason enough to reject a pair.
+     */
+    public static boolean isPlausible(int mcc, int mnc) {
+        return mnc >= 0 && mnc <= 999 && Arrays.binarySearch(NetworkOperatorTable.COUNTRY_MCCS, mcc) >= 0;
+    }
+
+    /**
+     * Same as {@link #isPlausible(int, int)} for CDMA networks, where the 15-bit system identifier
+     * (SID) stands in for the MNC.
+     */
+    public static boolean isPlausibleCdma(int mcc, int sid) {
+        return sid >= 0 && sid <= MAX_CDMA_SYSTEM_ID && Arrays.binarySearch(NetworkOperatorTable.COUNTRY_MCCS, mcc) >= 0;
+    }
+
+    /**
+     * @return e.g. "Telus (CA)", "(CA)" if only the country is known, or an empty string
+     */
+    public static String getFriendlyName(int mcc, int mnc) {
+        String country = getCountryCode(mcc);
+        if (country == null) {
+            return "";
+        }
+        String operator = getOperatorName(mcc, mnc);
+        return operator != null ? operator + " (" + country + ")" : "(" + country + ")";
+    }
+}
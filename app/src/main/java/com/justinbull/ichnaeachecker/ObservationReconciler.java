@@ -0,0 +1,515 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Joins a large log of cell observations (as written by {@link CellObservationExporter} in CSV
+ * form) against a full cell dataset, for back-office coverage statistics: how many of the observed
+ * cells the dataset knows, overall and per operator.
+ *
+ * Observations are held as primitive arrays and sorted in parallel by packed cell key. The sorted
+ * log is then split into slices at cell boundaries, and each slice is sort-merged against the
+ * memory-mapped {@link CellDatasetFile} on its own fork-join worker, galloping through the dataset
+ * so sparse slices skip ahead in logarithmic time. Per-slice counts are combined as the tasks join.
+ *
+ * Only uses java.util.concurrent, so it runs on any JVM with the app classes, as well as on
+ * devices from API 21. {@link #main(String[])} runs it from the command line, see tools.gradle.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ObservationReconciler {
+    private static final int SORT_THRESHOLD = 8192;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    private static final int JOIN_THRESHOLD = 64 * 1024;
+
+    private final ForkJoinPool mPool;
+    private final int mSortThreshold;
+    private final int mJoinThreshold;
+
+    /**
+     * Uses a new pool with one worker per core.
+     */
+    public ObservationReconciler() {
+        this(new ForkJoinPool());
+    }
+
+    public ObservationReconciler(ForkJoinPool pool) {
+        this(pool, SORT_THRESHOLD, JOIN_THRESHOLD);
+    }
+
+    /**
+     * @param sortThreshold Largest range sorted by a single task
+     * @param joinThreshold Largest slice joined by a single task
+     */
+    ObservationReconciler(ForkJoinPool pool, int sortThreshold, int joinThreshold) {
+        mPool = pool;
+        mSortThreshold = sortThreshold;
+        mJoinThreshold = joinThreshold;
+    }
+
+    /**
+     * Observed cells as parallel primitive arrays of packed key and network type, one entry per
+     * observation.
+     */
+    public static final class Observations {
+        private long[] mKeys;
+        private int[] mTypes;
+        private int mCount;
+
+        public Observations(int initialCapacity) {
+            mKeys = new long[Math.max(initialCapacity, 16)];
+            mTypes = new int[mKeys.length];
+        }
+
+        /**
+         * @param packedKey   From {@link GeneralCellInfo#packCellKey(int, int, int, int)}
+         * @param networkType Index into {@link GeneralCellInfo#NETWORKS}
+         */
+        public void add(long packedKey, int networkType) {
+            if (mCount == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mCount * 2);
+                mTypes = Arrays.copyOf(mTypes, mCount * 2);
+            }
+            mKeys[mCount] = packedKey;
+            mTypes[mCount] = networkType;
+            mCount++;
+        }
+
+        public int size() {
+            return mCount;
+        }
+    }
+
+    /**
+     * Read an observation CSV in the MLS cell export layout, as written by
+     * {@link CellObservationExporter.Format#CSV_GZIP} (already decompressed). Rows without a full
+     * MCC, MNC, area and cell identity can't be matched and are skipped.
+     */
+    public static Observations readObservations(InputStream csv) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, "UTF-8"), 64 * 1024);
+        Observations observations = new Observations(64 * 1024);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // radio,mcc,net,area,cell,...
+            String[] fields = line.split(",", 6);
+            if (fields.length < 5) {
+                continue;
+            }
+            int type = CellDatasetFile.getNetworkTypeIndex(fields[0]);
+            if (type == -1) {
+                continue; // Also skips the header row
+            }
+            try {
+                int mcc = Integer.parseInt(fields[1]);
+                int mnc = Integer.parseInt(fields[2]);
+                int area = Integer.parseInt(fields[3]);
+                long cell = Long.parseLong(fields[4]);
+                if (mcc < 0 || mcc > 999 || mnc < 0 || mnc > 999 || area < 0 || area > 0xFFFF
+                        || cell < 0 || cell > 0xFFFFFFFL) {
+                    continue;
+                }
+                observations.add(GeneralCellInfo.packCellKey(mcc, mnc, area, (int) cell), type);
+            } catch (NumberFormatException e) {
+                // Unknown field left empty, or malformed row
+            }
+        }
+        return observations;
+    }
+
+    /**
+     * Sorts the observations in place, then joins them against the dataset.
+     */
+    public Report reconcile(Observations observations, CellDatasetFile dataset) {
+        int count = observations.mCount;
+        if (count == 0) {
+            return new Report();
+        }
+        mPool.invoke(new SortTask(observations.mKeys, observations.mTypes,
+                new long[count], new int[count], 0, count, mSortThreshold));
+        return mPool.invoke(new JoinTask(observations.mKeys, observations.mTypes, dataset, 0, count, mJoinThreshold));
+    }
+
+    /**
+     * Reconciles an observation CSV against a dataset file and prints the report:
+     * {@code ObservationReconciler <observations.csv[.gz]> <cells.dat>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ObservationReconciler <observations.csv[.gz]> <cells.dat>");
+            System.exit(2);
+        }
+        Observations observations;
+        InputStream csv = CellDatasetFile.openExport(new File(args[0]));
+        try {
+            observations = readObservations(csv);
+        } finally {
+            csv.close();
+        }
+        CellDatasetFile dataset = CellDatasetFile.open(new File(args[1]));
+        Report report;
+        try {
+            report = new ObservationReconciler().reconcile(observations, dataset);
+        } finally {
+            dataset.close();
+        }
+        System.out.println(report.getCellCount() + " cells, " + report.getFoundCells() + " in the dataset ("
+                + String.format(Locale.US, "%.1f%%", report.getCoverage() * 100) + "), "
+                + report.getMissingCells() + " not");
+        System.out.println(report.getObservationCount() + " observations, " + report.getFoundObservations()
+                + " of known cells, " + report.getMissingObservations() + " of unknown cells");
+        for (int i = 0; i < report.getOperatorCount(); i++) {
+            int operator = report.getOperator(i);
+            System.out.println(NetworkOperators.getFriendlyName(operator / 1000, operator % 1000) + ": "
+                    + report.getOperatorFoundCells(i) + " found, " + report.getOperatorMissingCells(i) + " missing");
+        }
+    }
+
+    /**
+     * Parallel merge sort of the observation arrays by {@link CellKey#compare(long, int, long, int)}.
+     */
+    static class SortTask extends RecursiveAction {
+        private final long[] mKeys;
+        private final int[] mTypes;
+        private final long[] mScratchKeys;
+        private final int[] mScratchTypes;
+        private final int mFrom;
+        private final int mTo;
+        private final int mThreshold;
+
+        /**
+         * @param scratchKeys  At least as long as keys, contents don't matter
+         * @param scratchTypes At least as long as types, contents don't matter
+         * @param threshold    Largest range sorted without forking
+         */
+        SortTask(long[] keys, int[] types, long[] scratchKeys, int[] scratchTypes, int from, int to, int threshold) {
+            mKeys = keys;
+            mTypes = types;
+            mScratchKeys = scratchKeys;
+            mScratchTypes = scratchTypes;
+            mFrom = from;
+            mTo = to;
+            mThreshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mThreshold) {
+                sort(mFrom, mTo);
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new SortTask(mKeys, mTypes, mScratchKeys, mScratchTypes, mFrom, mid, mThreshold),
+                    new SortTask(mKeys, mTypes, mScratchKeys, mScratchTypes, mid, mTo, mThreshold));
+            merge(mFrom, mid, mTo);
+        }
+
+        private void sort(int from, int to) {
+            if (to - from <= INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    long key = mKeys[i];
+                    int type = mTypes[i];
+                    int j = i - 1;
+                    while (j >= from && CellKey.compare(mKeys[j], mTypes[j], key, type) > 0) {
+                        mKeys[j + 1] = mKeys[j];
+                        mTypes[j + 1] = mTypes[j];
+                        j--;
+                    }
+                    mKeys[j + 1] = key;
+                    mTypes[j + 1] = type;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sort(from, mid);
+            sort(mid, to);
+            merge(from, mid, to);
+        }
+
+        private void merge(int from, int mid, int to) {
+            if (CellKey.compare(mKeys[mid - 1], mTypes[mid - 1], mKeys[mid], mTypes[mid]) <= 0) {
+                return; // Already in order
+            }
+            System.arraycopy(mKeys, from, mScratchKeys, from, to - from);
+            System.arraycopy(mTypes, from, mScratchTypes, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int n = from; n < to; n++) {
+                if (left < mid && (right >= to || CellKey.compare(mScratchKeys[left], mScratchTypes[left],
+                        mScratchKeys[right], mScratchTypes[right]) <= 0)) {
+                    mKeys[n] = mScratchKeys[left];
+                    mTypes[n] = mScratchTypes[left];
+                    left++;
+                } else {
+                    mKeys[n] = mScratchKeys[right];
+                    mTypes[n] = mScratchTypes[right];
+                    right++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort-merges a slice of the sorted observations against the dataset, splitting the slice in
+     * two at a cell boundary while it's large.
+     */
+    static class JoinTask extends RecursiveTask<Report> {
+        private final long[] mKeys;
+        private final int[] mTypes;
+        private final CellDatasetFile mDataset;
+        private final int mFrom;
+        private final int mTo;
+        private final int mThreshold;
+
+        /**
+         * @param keys      Sorted observations
+         * @param threshold Largest slice joined without forking
+         */
+        JoinTask(long[] keys, int[] types, CellDatasetFile dataset, int from, int to, int threshold) {
+            mKeys = keys;
+            mTypes = types;
+            mDataset = dataset;
+            mFrom = from;
+            mTo = to;
+            mThreshold = threshold;
+        }
+
+        @Override
+        protected Report compute() {
+            if (mTo - mFrom > mThreshold) {
+                int mid = splitPoint(mKeys, mTypes, mFrom, mTo);
+                if (mid < mTo) {
+                    JoinTask left = new JoinTask(mKeys, mTypes, mDataset, mFrom, mid, mThreshold);
+                    left.fork();
+                    Report right = new JoinTask(mKeys, mTypes, mDataset, mid, mTo, mThreshold).compute();
+                    return Report.merge(left.join(), right);
+                }
+            }
+            return mergeSlice();
+        }
+
+        private Report mergeSlice() {
+            Report report = new Report();
+            long records = mDataset.getRecordCount();
+            long position = 0;
+            int i = mFrom;
+            while (i < mTo) {
+                long key = mKeys[i];
+                int type = mTypes[i];
+                int runEnd = i + 1;
+                while (runEnd < mTo && mKeys[runEnd] == key && mTypes[runEnd] == type) {
+                    runEnd++;
+                }
+                position = gallop(mDataset, position, key, type);
+                boolean found = position < records && mDataset.getKey(position) == key
+                        && mDataset.getNetworkType(position) == type;
+                report.add(GeneralCellInfo.unpackOperator(key), found, runEnd - i);
+                i = runEnd;
+            }
+            return report;
+        }
+
+    }
+
+    /**
+     * Where to split the sorted observations [from, to) in two: the middle, moved forward to the
+     * start of the next cell so the observations of one cell never end up in both halves, where it
+     * would be counted twice.
+     *
+     * @return The split point, or to if [middle, to) is all one cell
+     */
+    static int splitPoint(long[] keys, int[] types, int from, int to) {
+        int mid = Math.max((from + to) >>> 1, from + 1);
+        while (mid < to && keys[mid] == keys[mid - 1] && types[mid] == types[mid - 1]) {
+            mid++;
+        }
+        return mid;
+    }
+
+    /**
+     * @return The first dataset record at or after from that isn't ordered before the key, found
+     * by doubling steps and then a binary search within the last step
+     */
+    static long gallop(CellDatasetFile dataset, long from, long key, int type) {
+        long records = dataset.getRecordCount();
+        long low = from;
+        long high = from;
+        long step = 1;
+        while (high < records && CellKey.compare(dataset.getKey(high), dataset.getNetworkType(high), key, type) < 0) {
+            low = high + 1;
+            high = low + step;
+            step <<= 1;
+        }
+        return dataset.lowerBound(key, type, low, Math.min(high, records));
+    }
+
+    /**
+     * Counts of distinct cells and observations found or missing in the dataset, overall and per
+     * operator (MCC * 1000 + MNC). Operators are listed in packed key order, not numerically.
+     */
+    public static final class Report {
+        private long mFoundCells;
+        private long mMissingCells;
+        private long mFoundObservations;
+        private long mMissingObservations;
+        private int[] mOperators = new int[8];
+        private long[] mOperatorFound = new long[8];
+        private long[] mOperatorMissing = new long[8];
+        private int mOperatorCount;
+
+        Report() {
+        }
+
+        void add(int operator, boolean found, long observations) {
+            if (found) {
+                mFoundCells++;
+                mFoundObservations += observations;
+            } else {
+                mMissingCells++;
+                mMissingObservations += observations;
+            }
+            if (mOperatorCount == 0 || mOperators[mOperatorCount - 1] != operator) {
+                appendOperator(operator, 0, 0);
+            }
+            if (found) {
+                mOperatorFound[mOperatorCount - 1]++;
+            } else {
+                mOperatorMissing[mOperatorCount - 1]++;
+            }
+        }
+
+        private void appendOperator(int operator, long found, long missing) {
+            if (mOperatorCount == mOperators.length) {
+                mOperators = Arrays.copyOf(mOperators, mOperatorCount * 2);
+                mOperatorFound = Arrays.copyOf(mOperatorFound, mOperatorCount * 2);
+                mOperatorMissing = Arrays.copyOf(mOperatorMissing, mOperatorCount * 2);
+            }
+            mOperators[mOperatorCount] = operator;
+            mOperatorFound[mOperatorCount] = found;
+            mOperatorMissing[mOperatorCount] = missing;
+            mOperatorCount++;
+        }
+
+        /**
+         * Combine the reports of two adjacent slices, left before right. Since slices are in key
+         * order, an operator can only be shared by the last entry of left and the first of right.
+         */
+        static Report merge(Report left, Report right) {
+            Report merged = new Report();
+            merged.mFoundCells = left.mFoundCells + right.mFoundCells;
+            merged.mMissingCells = left.mMissingCells + right.mMissingCells;
+            merged.mFoundObservations = left.mFoundObservations + right.mFoundObservations;
+            merged.mMissingObservations = left.mMissingObservations + right.mMissingObservations;
+            for (int i = 0; i < left.mOperatorCount; i++) {
+                merged.appendOperator(left.mOperators[i], left.mOperatorFound[i], left.mOperatorMissing[i]);
+            }
+            for (int i = 0; i < right.mOperatorCount; i++) {
+                int last = merged.mOperatorCount - 1;
+                if (i == 0 && last >= 0 && merged.mOperators[last] == right.mOperators[0]) {
+                    merged.mOperatorFound[last] += right.mOperatorFound[0];
+                    merged.mOperatorMissing[last] += right.mOperatorMissing[0];
+                } else {
+                    merged.appendOperator(right.mOperators[i], right.mOperatorFound[i], right.mOperatorMissing[i]);
+                }
+            }
+            return merged;
+        }
+
+        public long getCellCount() {
+            return mFoundCells + mMissingCells;
+        }
+
+        public long getFoundCells() {
+            return mFoundCells;
+        }
+
+        public long getMissingCells() {
+            return mMissingCells;
+        }
+
+        public long getObservationCount() {
+            return mFoundObservations + mMissingObservations;
+        }
+
+        public long getFoundObservations() {
+            return mFoundObservations;
+        }
+
+        public long getMissingObservations() {
+            return mMissingObservations;
+        }
+
+        /**
+         * @return Fraction of distinct observed cells that are in the dataset, NaN if none observed
+         */
+        public double getCoverage() {
+            return (double) mFoundCells / getCellCount();
+        }
+
+        public int getOperatorCount() {
+            return mOperatorCount;
+        }
+
+        /**
+         * @return MCC * 1000 + MNC of the operator at the given position
+         */
+        public int getOperator(int index) {
+            return mOperators[index];
+        }
+
+        public long getOperatorFoundCells(int index) {
+            return mOperatorFound[index];
+        }
+
+        public long getOperatorMissingCells(int index) {
+            return mOperatorMissing[index];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Report:{cells=").append(getCellCount())
+                    .append(" found=").append(mFoundCells)
+                    .append(" missing=").append(mMissingCells)
+                    .append(" observations=").append(getObservationCount())
+                    .append(" coverage=").append(getCoverage())
+                    .append(" operators=").append(mOperatorCount)
+                    .append("}");
+            return sb.toString();
+        }
+    }
+}
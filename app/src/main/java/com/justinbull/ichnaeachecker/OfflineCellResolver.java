@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Answers from a {@link CellDatasetFile} on local storage, opened on first use so it costs nothing
+ * at startup. Only answers for cells in the dataset: the dataset may be a regional extract or out
+ * of date, so a cell missing from it is left for the next resolver.
+ *
+ * Also serves as the {@link CellChangeDetector.PositionSource} of recorded positions.
+ */
+public class OfflineCellResolver implements CellResolver, CellChangeDetector.PositionSource {
+    private static final String TAG = "OfflineCellResolver";
+
+    public static final String DEFAULT_FILE_NAME = "cells.dat";
+
+    private static final String SOURCE = "offline";
+
+    private final File mFile;
+    private CellDatasetFile mDataset;
+    private boolean mUnavailable;
+
+    public OfflineCellResolver(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public CellLookupResult resolve(GeneralCellInfo cell) {
+        CellDatasetFile dataset = getDataset();
+        if (dataset == null) {
+            return null;
+        }
+        long index = dataset.find(cell.getCellKey(), cell.getNetworkTypeIndex());
+        if (index == -1) {
+            return null;
+        }
+        return CellLookupResult.found(dataset.getLatitude(index), dataset.getLongitude(index),
+                dataset.getRange(index), SOURCE, mFile.lastModified());
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return getDataset() != null;
+    }
+
+    @Override
+    public CellLookupResult getPosition(GeneralCellInfo cell) {
+        return resolve(cell);
+    }
+
+    @Override
+    public boolean hasPositionsInArea(GeneralCellInfo cell) {
+        CellDatasetFile dataset = getDataset();
+        return dataset != null && dataset.containsArea(cell.getCellKey(), cell.getNetworkTypeIndex());
+    }
+
+    private synchronized CellDatasetFile getDataset() {
+        if (mDataset == null && !mUnavailable) {
+            if (!mFile.exists()) {
+                return null; // May still be installed, see CellDataInstaller
+            }
+            try {
+                mDataset = CellDatasetFile.open(mFile);
+            } catch (IOException e) {
+                Log.w(TAG, "getDataset: Unable to open " + mFile + ", skipping offline lookups", e);
+                mUnavailable = true;
+            }
+        }
+        return mDataset;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps answers across app restarts in shared preferences, until they're older than a maximum age
+ * since MLS keeps learning about cells.
+ */
+public class PersistentCellResolver implements CachingCellResolver {
+    private static final String TAG = "PersistentCellResolver";
+
+    private static final String PREFERENCES_NAME = "cell_lookups";
+    private static final String SOURCE = "persistent";
+
+    private final SharedPreferences mPreferences;
+    private final long mMaxAgeMillis;
+
+    /**
+     * @param context      Any context
+     * @param maxAgeMillis Answers older than this are ignored and looked up again
+     */
+    public PersistentCellResolver(Context context, long maxAgeMillis) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    @Override
+    public CellLookupResult resolve(GeneralCellInfo cell) {
+        String stored = mPreferences.getString(CellKey.of(cell).toString(), null);
+        if (stored == null) {
+            return null;
+        }
+        return parse(stored);
+    }
+
+    /**
+     * Blocking, don't call from the main thread.
+     *
+     * @return Every answer kept that isn't too old yet
+     */
+    public Map<CellKey, CellLookupResult> getAll() {
+        Map<String, ?> all = mPreferences.getAll();
+        Map<CellKey, CellLookupResult> results = new HashMap<>(all.size());
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            CellLookupResult result = parse((String) entry.getValue());
+            if (result == null) {
+                continue;
+            }
+            try {
+                results.put(CellKey.parse(entry.getKey()), result);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "getAll: Ignoring malformed cached key " + entry.getKey(), e);
+            }
+        }
+        return results;
+    }
+
+    private CellLookupResult parse(String stored) {
+        // Either "N,resolvedAt" or "F,resolvedAt,lat,lng,accuracy"
+        String[] fields = stored.split(",");
+        try {
+            long resolvedAt = Long.parseLong(fields[1]);
+            if (System.currentTimeMillis() - resolvedAt > mMaxAgeMillis) {
+                return null;
+            }
+            if ("N".equals(fields[0])) {
+                return CellLookupResult.notFound(SOURCE, resolvedAt);
+            }
+            return CellLookupResult.found(Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                    Float.parseFloat(fields[4]), SOURCE, resolvedAt);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            Log.w(TAG, "parse: Ignoring malformed cached answer " + stored, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void remember(GeneralCellInfo cell, CellLookupResult result) {
+        String stored;
+        if (result.isFound()) {
+            stored = "F," + result.getResolvedAt() + "," + result.getLatitude() + ","
+                    + result.getLongitude() + "," + result.getAccuracyMeters();
+        } else {
+            stored = "N," + result.getResolvedAt();
+        }
+        mPreferences.edit().putString(CellKey.of(cell).toString(), stored).apply();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import com.loopj.android.http.JsonHttpResponseHandler;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+import cz.msebera.android.httpclient.Header;
+
+/**
+ * Asks the MLS Geolocate API, the last resort of a lookup chain. Always answers definitively, or
+ * fails.
+ */
+public class RemoteCellResolver implements CellResolver {
+    private static final String SOURCE = "remote";
+
+    @Override
+    public CellLookupResult resolve(GeneralCellInfo cell) throws IOException {
+        final CellLookupResult[] result = new CellLookupResult[1];
+        final IOException[] error = new IOException[1];
+        JsonHttpResponseHandler handler = new JsonHttpResponseHandler() {
+            @Override
+            public void onSuccess(int statusCode, Header[] headers, JSONObject response) {
+                try {
+                    JSONObject location = response.getJSONObject("location");
+                    result[0] = CellLookupResult.found(location.getDouble("lat"), location.getDouble("lng"),
+                            (float) response.getDouble("accuracy"), SOURCE, System.currentTimeMillis());
+                } catch (JSONException e) {
+                    error[0] = new IOException("Malformed Geolocate response", e);
+                }
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JSONObject errorResponse) {
+                try {
+                    if (statusCode == 404 && errorResponse != null
+                            && errorResponse.getJSONObject("error").getInt("code") == 404) {
+                        result[0] = CellLookupResult.notFound(SOURCE, System.currentTimeMillis());
+                        return;
+                    }
+                } catch (JSONException e) {
+                    // Fall through to the generic error
+                }
+                error[0] = new IOException("Geolocate request failed with status " + statusCode, throwable);
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, String responseString, Throwable throwable) {
+                error[0] = new IOException("Geolocate request failed with status " + statusCode, throwable);
+            }
+        };
+        // Called back on this thread, there is no looper to post to
+        handler.setUsePoolThread(true);
+        IchnaeaRestClient.geolocateBlocking(cell, handler);
+        if (error[0] != null) {
+            throw error[0];
+        }
+        if (result[0] == null) {
+            throw new IOException("Geolocate request was cancelled or got no response");
+        }
+        return result[0];
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CellBloomFilterTest {
+    private static final int CELL_COUNT = 100000;
+    private static final int PROBE_COUNT = 200000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static CellKey randomCell(Random random) {
+        return new CellKey(random.nextInt(GeneralCellInfo.NETWORKS.length), GeneralCellInfo.packCellKey(
+                200 + random.nextInt(600), random.nextInt(1000), random.nextInt(0x10000), random.nextInt(0x10000000)));
+    }
+
+    private static Set<CellKey> randomCells(Random random, int count) {
+        Set<CellKey> cells = new HashSet<>(count * 2);
+        while (cells.size() < count) {
+            cells.add(randomCell(random));
+        }
+        return cells;
+    }
+
+    private static CellBloomFilter filterOf(Set<CellKey> cells, double falsePositiveRate) {
+        CellBloomFilter filter = CellBloomFilter.create(cells.size(), falsePositiveRate);
+        for (CellKey cell : cells) {
+            filter.put(cell.getPacked(), cell.getNetworkType());
+        }
+        return filter;
+    }
+
+    /**
+     * @return Share of random cells not in the filter that it reports as possibly present
+     */
+    private static double measureFalsePositiveRate(CellBloomFilter filter, Set<CellKey> cells, Random random) {
+        int probes = 0;
+        int falsePositives = 0;
+        while (probes < PROBE_COUNT) {
+            CellKey probe = randomCell(random);
+            if (cells.contains(probe)) {
+                continue;
+            }
+            probes++;
+            if (filter.mightContain(probe.getPacked(), probe.getNetworkType())) {
+                falsePositives++;
+            }
+        }
+        return (double) falsePositives / probes;
+    }
+
+    @Test
+    public void noFalseNegatives() {
+        Set<CellKey> cells = randomCells(new Random(1), CELL_COUNT);
+        CellBloomFilter filter = filterOf(cells, CellBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        for (CellKey cell : cells) {
+            assertTrue(filter.mightContain(cell.getPacked(), cell.getNetworkType()));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateWithinBounds() {
+        Random random = new Random(2);
+        Set<CellKey> cells = randomCells(random, CELL_COUNT);
+        for (double target : new double[]{0.05, 0.01, 0.001}) {
+            double measured = measureFalsePositiveRate(filterOf(cells, target), cells, random);
+            assertTrue("Measured " + measured + " for a target of " + target, measured <= target * 1.5);
+        }
+    }
+
+    @Test
+    public void networkTypeIsPartOfTheKey() {
+        Random random = new Random(3);
+        Set<CellKey> cells = randomCells(random, CELL_COUNT);
+        CellBloomFilter filter = filterOf(cells, 0.001);
+        int falsePositives = 0;
+        for (CellKey cell : cells) {
+            int otherType = (cell.getNetworkType() + 1) % GeneralCellInfo.NETWORKS.length;
+            if (!cells.contains(new CellKey(otherType, cell.getPacked()))
+                    && filter.mightContain(cell.getPacked(), otherType)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives <= CELL_COUNT * 0.001 * 1.5);
+    }
+
+    private File write(CellBloomFilter filter) throws IOException {
+        File file = mFolder.newFile();
+        filter.writeTo(new FileOutputStream(file));
+        return file;
+    }
+
+    @Test
+    public void writeToOpenRoundTrip() throws IOException {
+        Random random = new Random(4);
+        Set<CellKey> cells = randomCells(random, 10000);
+        CellBloomFilter filter = filterOf(cells, CellBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        File file = write(filter);
+        assertEquals(16 + filter.getBitCount() / 8, file.length());
+
+        CellBloomFilter opened = CellBloomFilter.open(file);
+        assertEquals(filter.getBitCount(), opened.getBitCount());
+        assertEquals(filter.getHashCount(), opened.getHashCount());
+        for (CellKey cell : cells) {
+            assertTrue(opened.mightContain(cell.getPacked(), cell.getNetworkType()));
+        }
+        for (int i = 0; i < 10000; i++) {
+            CellKey probe = randomCell(random);
+            assertEquals(filter.mightContain(probe.getPacked(), probe.getNetworkType()),
+                    opened.mightContain(probe.getPacked(), probe.getNetworkType()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsOtherData() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        CellBloomFilter.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsEmptyFile() throws IOException {
+        CellBloomFilter.open(mFolder.newFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsTruncatedFile() throws IOException {
+        File file = write(filterOf(randomCells(new Random(5), 1000), CellBloomFilter.DEFAULT_FALSE_POSITIVE_RATE));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 8);
+        raf.close();
+        CellBloomFilter.open(file);
+    }
+
+    @Test
+    public void buildHoldsEveryCellOfTheDataset() throws IOException {
+        String csv = "radio,mcc,net,area,cell,unit,lon,lat,range\n"
+                + "GSM,302,720,100,5,,-79.1,43.1,1000\n"
+                + "LTE,302,720,3400,1234567,12,-79.38,43.65,250\n"
+                + "UMTS,208,1,200,70000,300,2.35,48.85,500\n";
+        File file = mFolder.newFile();
+        CellDatasetFile.convertMlsExport(new ByteArrayInputStream(csv.getBytes("UTF-8")), file);
+        CellDatasetFile dataset = CellDatasetFile.open(file);
+        try {
+            CellBloomFilter filter = CellBloomFilter.build(dataset, CellBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+            for (long i = 0; i < dataset.getRecordCount(); i++) {
+                assertTrue(filter.mightContain(dataset.getKey(i), dataset.getNetworkType(i)));
+            }
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createRejectsImpossibleRates() {
+        CellBloomFilter.create(100, 1);
+    }
+}
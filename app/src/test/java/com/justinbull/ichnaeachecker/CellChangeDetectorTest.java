@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CellChangeDetectorTest {
+    private static final double LATITUDE = 43.65;
+    private static final double LONGITUDE = -79.38;
+    // One thousandth of a degree of latitude, in meters
+    private static final double MILLIDEGREE_METERS = 111.195;
+
+    private static final GeneralCellInfo CELL = cell(1234567, 3400);
+    private static final GeneralCellInfo NEIGHBOUR = cell(1234568, 3400);
+    private static final GeneralCellInfo OTHER_AREA_CELL = cell(7654321, 3401);
+
+    private CellChangeDetector mDetector;
+
+    /**
+     * Knows a single cell's position and the area it's in, and counts how often it was asked.
+     */
+    private static class FakePositionSource implements CellChangeDetector.PositionSource {
+        final GeneralCellInfo mCell;
+        final CellLookupResult mPosition;
+        boolean mAvailable = true;
+        int mCalls;
+
+        FakePositionSource(GeneralCellInfo cell, CellLookupResult position) {
+            mCell = cell;
+            mPosition = position;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return mAvailable;
+        }
+
+        @Override
+        public CellLookupResult getPosition(GeneralCellInfo cell) {
+            mCalls++;
+            return cell.equals(mCell) ? mPosition : null;
+        }
+
+        @Override
+        public boolean hasPositionsInArea(GeneralCellInfo cell) {
+            return cell.getAreaCode() == mCell.getAreaCode();
+        }
+    }
+
+    private static GeneralCellInfo cell(int cellIdentity, int areaCode) {
+        return new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_LTE, false, cellIdentity, 302, 720,
+                12, areaCode, -95, 45, 3);
+    }
+
+    /**
+     * Observe a cell from the given number of thousandths of a degree north of the recorded position.
+     */
+    private CellChangeDetector.Change observe(GeneralCellInfo cell, int millidegreesNorth, float fixAccuracyMeters) {
+        return mDetector.observe(cell, LATITUDE + millidegreesNorth / 1000.0, LONGITUDE, fixAccuracyMeters);
+    }
+
+    @Before
+    public void setUp() {
+        mDetector = new CellChangeDetector(null, 2f);
+    }
+
+    @Test
+    public void distance() {
+        assertEquals(1000 * MILLIDEGREE_METERS, CellChangeDetector.distanceMeters(0, 0, 1, 0), 1);
+        assertEquals(10 * MILLIDEGREE_METERS, CellChangeDetector.distanceMeters(LATITUDE, LONGITUDE, LATITUDE + 0.01, LONGITUDE), 0.1);
+        assertEquals(0, CellChangeDetector.distanceMeters(LATITUDE, LONGITUDE, LATITUDE, LONGITUDE), 0);
+    }
+
+    @Test
+    public void observationNearRecordedPosition() {
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 0, 0));
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 4, 0));
+    }
+
+    @Test
+    public void observationFarFromRecordedPositionIsMoved() {
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 50, 0));
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, -50, 0));
+    }
+
+    @Test
+    public void toleranceScalesAccuracyAndAddsFixAccuracy() {
+        // 500m at a tolerance factor of 2 allows for 1000m
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 8, 0));
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 10, 0));
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 10, 200));
+
+        mDetector = new CellChangeDetector(null, 3f);
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 10, 0));
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 14, 0));
+    }
+
+    @Test
+    public void laterRecordingReplacesPosition() {
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+        mDetector.recordPosition(CELL, LATITUDE + 0.05, LONGITUDE, 500);
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 50, 0));
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 0, 0));
+    }
+
+    @Test
+    public void unknownCellInKnownAreaIsNew() {
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+        assertEquals(CellChangeDetector.Change.NEW_IN_KNOWN_AREA, observe(NEIGHBOUR, 0, 0));
+        assertEquals(CellChangeDetector.Change.UNKNOWN, observe(OTHER_AREA_CELL, 0, 0));
+    }
+
+    @Test
+    public void partiallyKnownCellIsUnknown() {
+        GeneralCellInfo partial = new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_LTE, false,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 12, Integer.MAX_VALUE, -95, 45, 3);
+        assertEquals(CellChangeDetector.Change.UNKNOWN, mDetector.observe(partial, LATITUDE, LONGITUDE, 0));
+    }
+
+    @Test
+    public void recordPositionsKeepsOnlyFoundResults() {
+        Map<CellKey, CellLookupResult> results = new HashMap<>();
+        results.put(CellKey.of(CELL), CellLookupResult.found(LATITUDE, LONGITUDE, 500, "fake", 1000));
+        results.put(CellKey.of(OTHER_AREA_CELL), CellLookupResult.notFound("fake", 1000));
+        mDetector.recordPositions(results);
+
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 0, 0));
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 50, 0));
+        assertEquals(CellChangeDetector.Change.NEW_IN_KNOWN_AREA, observe(NEIGHBOUR, 0, 0));
+        assertEquals(CellChangeDetector.Change.UNKNOWN, observe(OTHER_AREA_CELL, 0, 0));
+    }
+
+    @Test
+    public void positionSourceAskedOncePerCell() {
+        FakePositionSource source = new FakePositionSource(CELL,
+                CellLookupResult.found(LATITUDE, LONGITUDE, 500, "fake", 1000));
+        mDetector = new CellChangeDetector(source, 2f);
+
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 50, 0));
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 0, 0));
+        assertEquals(1, source.mCalls);
+
+        assertEquals(CellChangeDetector.Change.NEW_IN_KNOWN_AREA, observe(NEIGHBOUR, 0, 0));
+        assertEquals(CellChangeDetector.Change.NEW_IN_KNOWN_AREA, observe(NEIGHBOUR, 0, 0));
+        assertEquals(CellChangeDetector.Change.UNKNOWN, observe(OTHER_AREA_CELL, 0, 0));
+        assertEquals(3, source.mCalls);
+    }
+
+    @Test
+    public void positionSourceAskedOnceAvailable() {
+        FakePositionSource source = new FakePositionSource(CELL,
+                CellLookupResult.found(LATITUDE, LONGITUDE, 500, "fake", 1000));
+        source.mAvailable = false;
+        mDetector = new CellChangeDetector(source, 2f);
+
+        assertEquals(CellChangeDetector.Change.UNKNOWN, observe(CELL, 50, 0));
+        assertEquals(0, source.mCalls);
+
+        source.mAvailable = true;
+        assertEquals(CellChangeDetector.Change.MOVED, observe(CELL, 50, 0));
+        assertEquals(1, source.mCalls);
+    }
+
+    @Test
+    public void recordedPositionWinsOverSource() {
+        FakePositionSource source = new FakePositionSource(CELL,
+                CellLookupResult.found(LATITUDE + 0.05, LONGITUDE, 500, "fake", 1000));
+        mDetector = new CellChangeDetector(source, 2f);
+        mDetector.recordPosition(CELL, LATITUDE, LONGITUDE, 500);
+
+        assertEquals(CellChangeDetector.Change.NONE, observe(CELL, 0, 0));
+        assertEquals(0, source.mCalls);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CellDatasetFileTest {
+    private static final int GSM = CellDatasetFile.getNetworkTypeIndex("GSM");
+    private static final int UMTS = CellDatasetFile.getNetworkTypeIndex("UMTS");
+    private static final int LTE = CellDatasetFile.getNetworkTypeIndex("LTE");
+
+    // Deliberately out of order, with a duplicate, a GSM and LTE cell sharing their numbers, and
+    // rows the conversion has to skip
+    private static final String EXPORT = "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal\n"
+            + "LTE,302,720,3400,1234567,12,-79.3800000,43.6500000,250,10,1,1,2,\n"
+            + "GSM,302,720,100,5,,-79.1000000,43.1000000,1000,3,1,1,2,\n"
+            + "UMTS,302,610,200,70000,300,-75.7000000,45.4000000,500,7,1,1,2,\n"
+            + "GSM,302,720,100,5,,-79.2000000,43.2000000,900,3,1,1,2,\n"
+            + "LTE,302,720,100,5,,-79.3000000,43.3000000,800,3,1,1,2,\n"
+            + "GSM,208,1,1,1,,2.3500000,48.8500000,1500,3,1,1,2,\n"
+            + "NR,302,720,1,1,,0,0,1,1,1,1,2,\n"
+            + "GSM,302,720,not-a-number,1,,0,0,1,1,1,1,2,\n"
+            + "GSM,302,720,70000,1,,0,0,1,1,1,1,2,\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File convert(String csv) throws IOException {
+        File file = mFolder.newFile();
+        CellDatasetFile.convertMlsExport(new ByteArrayInputStream(csv.getBytes("UTF-8")), file);
+        return file;
+    }
+
+    @Test
+    public void convertSortsAndDeduplicates() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert(EXPORT));
+        try {
+            assertEquals(5, dataset.getRecordCount());
+            for (long i = 1; i < dataset.getRecordCount(); i++) {
+                assertTrue(CellKey.compare(dataset.getKey(i - 1), dataset.getNetworkType(i - 1),
+                        dataset.getKey(i), dataset.getNetworkType(i)) < 0);
+            }
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void findReturnsTheCellsRecord() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert(EXPORT));
+        try {
+            long index = dataset.find(GeneralCellInfo.packCellKey(302, 720, 3400, 1234567), LTE);
+            assertTrue(index >= 0);
+            assertEquals(43.65, dataset.getLatitude(index), 1e-7);
+            assertEquals(-79.38, dataset.getLongitude(index), 1e-7);
+            assertEquals(250, dataset.getRange(index));
+
+            index = dataset.find(GeneralCellInfo.packCellKey(302, 610, 200, 70000), UMTS);
+            assertTrue(index >= 0);
+            assertEquals(500, dataset.getRange(index));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void findTellsNetworkTypesApart() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert(EXPORT));
+        try {
+            long packed = GeneralCellInfo.packCellKey(302, 720, 100, 5);
+            long gsm = dataset.find(packed, GSM);
+            long lte = dataset.find(packed, LTE);
+            assertTrue(gsm >= 0 && lte >= 0 && gsm != lte);
+            assertEquals(800, dataset.getRange(lte));
+            assertEquals(-1, dataset.find(packed, UMTS));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void findMissesAbsentCells() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert(EXPORT));
+        try {
+            assertEquals(-1, dataset.find(GeneralCellInfo.packCellKey(302, 720, 100, 6), GSM));
+            assertEquals(-1, dataset.find(GeneralCellInfo.packCellKey(0, 0, 0, 0), GSM));
+            assertEquals(-1, dataset.find(GeneralCellInfo.packCellKey(999, 999, 0xFFFF, 0xFFFFFFF), LTE));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void lowerBoundFindsInsertionPoints() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert(EXPORT));
+        try {
+            long count = dataset.getRecordCount();
+            assertEquals(0, dataset.lowerBound(0, 0));
+            assertEquals(count, dataset.lowerBound(Long.MAX_VALUE, 0));
+            // 208/1 sorts first, then the 302/610 and 302/720 cells
+            assertEquals(1, dataset.lowerBound(GeneralCellInfo.packCellKey(208, 2, 0, 0), 0));
+            // The GSM and LTE cell sharing a key are ordered by network type
+            long packed = GeneralCellInfo.packCellKey(302, 720, 100, 5);
+            long first = dataset.lowerBound(packed, 0);
+            assertEquals(Math.min(GSM, LTE), dataset.getNetworkType(first));
+            assertEquals(first + 1, dataset.lowerBound(packed, Math.max(GSM, LTE)));
+            assertEquals(first + 2, dataset.lowerBound(packed, Math.max(GSM, LTE) + 1));
+            // Restricted to a range
+            assertEquals(3, dataset.lowerBound(0, 0, 3, count));
+            assertEquals(2, dataset.lowerBound(Long.MAX_VALUE, 0, 0, 2));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void lowerBoundOnEmptyDataset() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert("radio,mcc,net,area,cell,unit,lon,lat,range\n"));
+        try {
+            assertEquals(0, dataset.getRecordCount());
+            assertEquals(0, dataset.lowerBound(GeneralCellInfo.packCellKey(302, 720, 100, 5), GSM));
+            assertEquals(-1, dataset.find(GeneralCellInfo.packCellKey(302, 720, 100, 5), GSM));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void containsAreaMatchesNetworkType() throws IOException {
+        CellDatasetFile dataset = CellDatasetFile.open(convert(EXPORT));
+        try {
+            assertTrue(dataset.containsArea(GeneralCellInfo.packCellKey(302, 720, 100, 99), GSM));
+            assertTrue(dataset.containsArea(GeneralCellInfo.packCellKey(302, 720, 100, 99), LTE));
+            assertFalse(dataset.containsArea(GeneralCellInfo.packCellKey(302, 720, 100, 99), UMTS));
+            assertFalse(dataset.containsArea(GeneralCellInfo.packCellKey(302, 720, 101, 99), GSM));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void convertKeepsOnlyRequestedCountries() throws IOException {
+        File file = mFolder.newFile();
+        CellDatasetFile.convertMlsExport(new ByteArrayInputStream(EXPORT.getBytes("UTF-8")), file,
+                Collections.singleton(208));
+        CellDatasetFile dataset = CellDatasetFile.open(file);
+        try {
+            assertEquals(1, dataset.getRecordCount());
+            assertTrue(dataset.find(GeneralCellInfo.packCellKey(208, 1, 1, 1), GSM) >= 0);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[32]);
+        out.close();
+        CellDatasetFile.open(file);
+    }
+}
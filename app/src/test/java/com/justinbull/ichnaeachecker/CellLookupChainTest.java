@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CellLookupChainTest {
+    private static final GeneralCellInfo CELL = new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_LTE,
+            true, 1234567, 302, 720, 12, 3400, -95, 45, 3);
+    private static final GeneralCellInfo OTHER_CELL = new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_GSM,
+            false, 4321, 302, 720, Integer.MAX_VALUE, 3400, -80, 16, 2);
+    private static final CellLookupResult FOUND = CellLookupResult.found(43.65, -79.38, 250, "fake", 1000);
+    private static final CellLookupResult NOT_FOUND = CellLookupResult.notFound("fake", 1000);
+
+    private ExecutorService mExecutor;
+
+    /**
+     * Answers with a fixed result and counts how often it was asked.
+     */
+    private static class FakeResolver implements CellResolver {
+        final CellLookupResult mResult;
+        int mCalls;
+
+        FakeResolver(CellLookupResult result) {
+            mResult = result;
+        }
+
+        @Override
+        public CellLookupResult resolve(GeneralCellInfo cell) {
+            mCalls++;
+            return mResult;
+        }
+    }
+
+    private static class FakeCachingResolver extends FakeResolver implements CachingCellResolver {
+        final List<CellLookupResult> mRemembered = new ArrayList<>();
+
+        FakeCachingResolver(CellLookupResult result) {
+            super(result);
+        }
+
+        @Override
+        public void remember(GeneralCellInfo cell, CellLookupResult result) {
+            mRemembered.add(result);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void resolveStopsAtFirstDefinitiveAnswer() throws IOException {
+        FakeResolver miss = new FakeResolver(null);
+        FakeResolver hit = new FakeResolver(NOT_FOUND);
+        FakeResolver unreached = new FakeResolver(FOUND);
+        CellLookupChain chain = new CellLookupChain(mExecutor, miss, hit, unreached);
+
+        assertSame(NOT_FOUND, chain.resolve(CELL));
+        assertEquals(1, miss.mCalls);
+        assertEquals(1, hit.mCalls);
+        assertEquals(0, unreached.mCalls);
+    }
+
+    @Test
+    public void resolveBackfillsCachesAheadOfTheAnswer() throws IOException {
+        FakeCachingResolver first = new FakeCachingResolver(null);
+        FakeResolver plain = new FakeResolver(null);
+        FakeCachingResolver second = new FakeCachingResolver(null);
+        FakeResolver answer = new FakeResolver(FOUND);
+        FakeCachingResolver after = new FakeCachingResolver(null);
+        CellLookupChain chain = new CellLookupChain(mExecutor, first, plain, second, answer, after);
+
+        chain.resolve(CELL);
+        assertEquals(1, first.mRemembered.size());
+        assertSame(FOUND, first.mRemembered.get(0));
+        assertEquals(1, second.mRemembered.size());
+        assertEquals(0, after.mRemembered.size());
+        assertEquals(0, after.mCalls);
+    }
+
+    @Test
+    public void answerFromCacheIsNotRememberedAgain() throws IOException {
+        FakeCachingResolver cache = new FakeCachingResolver(FOUND);
+        FakeResolver remote = new FakeResolver(NOT_FOUND);
+        CellLookupChain chain = new CellLookupChain(mExecutor, cache, remote);
+
+        assertSame(FOUND, chain.resolve(CELL));
+        assertEquals(0, cache.mRemembered.size());
+        assertEquals(0, remote.mCalls);
+    }
+
+    @Test
+    public void memoryResolverAnswersRepeatLookups() throws IOException {
+        MemoryCellResolver memory = new MemoryCellResolver(16);
+        FakeResolver remote = new FakeResolver(FOUND);
+        CellLookupChain chain = new CellLookupChain(mExecutor, memory, remote);
+
+        assertSame(FOUND, chain.resolve(CELL));
+        assertSame(FOUND, chain.resolve(CELL));
+        assertEquals(1, remote.mCalls);
+        assertNull(memory.resolve(OTHER_CELL));
+    }
+
+    @Test
+    public void memoryResolverEvictsLeastRecentlyUsed() {
+        MemoryCellResolver memory = new MemoryCellResolver(1);
+        memory.remember(CELL, FOUND);
+        memory.remember(OTHER_CELL, NOT_FOUND);
+        assertNull(memory.resolve(CELL));
+        assertSame(NOT_FOUND, memory.resolve(OTHER_CELL));
+    }
+
+    @Test(expected = IOException.class)
+    public void resolveFailsWithoutDefinitiveAnswer() throws IOException {
+        new CellLookupChain(mExecutor, new FakeResolver(null), new FakeResolver(null)).resolve(CELL);
+    }
+
+    @Test
+    public void resolveStopsWhenInterrupted() throws IOException {
+        FakeResolver resolver = new FakeResolver(FOUND);
+        CellLookupChain chain = new CellLookupChain(mExecutor, resolver);
+        Thread.currentThread().interrupt();
+        try {
+            chain.resolve(CELL);
+            fail("Interrupted lookup went ahead");
+        } catch (InterruptedIOException e) {
+            assertEquals(0, resolver.mCalls);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chainNeedsAResolver() {
+        new CellLookupChain(mExecutor, new ArrayList<CellResolver>());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.location.Location;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CellObservationExporterTest {
+    private static final String CSV_HEADER = "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal";
+    private static final long SCAN_TIME = 1476878400123L;
+
+    private static final GeneralCellInfo LTE_CELL = new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_LTE,
+            true, 1234567, 302, 720, 12, 3400, -95, 45, 3);
+    private static final GeneralCellInfo WCDMA_CELL = new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_WCDMA,
+            false, 98765, 302, 720, 300, 3400, -101, 6, 2);
+    // A neighbouring cell that only reports its scrambling code and signal
+    private static final GeneralCellInfo PARTIAL_CELL = new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_WCDMA,
+            false, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 301, Integer.MAX_VALUE, -105, 4, 1);
+
+    private static List<String> export(CellObservationExporter.Format format, List<List<GeneralCellInfo>> scans,
+                                       Location position) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CellObservationExporter exporter = new CellObservationExporter(out, format);
+        for (int i = 0; i < scans.size(); i++) {
+            exporter.write(scans.get(i), SCAN_TIME + i * 1000, position);
+        }
+        exporter.close();
+
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), "UTF-8"));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    @SafeVarargs
+    private static List<List<GeneralCellInfo>> scans(List<GeneralCellInfo>... scans) {
+        return Arrays.asList(scans);
+    }
+
+    @Test
+    public void csvWithoutPosition() throws IOException {
+        List<String> lines = export(CellObservationExporter.Format.CSV_GZIP,
+                scans(Arrays.asList(LTE_CELL, WCDMA_CELL), Collections.singletonList(LTE_CELL)), null);
+        assertEquals(4, lines.size());
+        assertEquals(CSV_HEADER, lines.get(0));
+        for (String line : lines) {
+            assertEquals(line, 14, line.split(",", -1).length);
+        }
+        assertEquals("LTE,302,720,3400,1234567,12,,,,1,1,1476878400,1476878400,-95", lines.get(1));
+        assertEquals("UMTS,302,720,3400,98765,300,,,,1,1,1476878400,1476878400,-101", lines.get(2));
+        assertEquals("LTE,302,720,3400,1234567,12,,,,1,1,1476878401,1476878401,-95", lines.get(3));
+    }
+
+    @Test
+    public void csvLeavesUnknownFieldsEmpty() throws IOException {
+        List<String> lines = export(CellObservationExporter.Format.CSV_GZIP,
+                scans(Collections.singletonList(PARTIAL_CELL)), null);
+        assertEquals(2, lines.size());
+        assertEquals("UMTS,,,,,301,,,,1,1,1476878400,1476878400,-105", lines.get(1));
+    }
+
+    @Test
+    public void csvEmptySessionHasOnlyHeader() throws IOException {
+        List<String> lines = export(CellObservationExporter.Format.CSV_GZIP,
+                scans(Collections.<GeneralCellInfo>emptyList()), null);
+        assertEquals(Collections.singletonList(CSV_HEADER), lines);
+    }
+
+    @Test
+    public void csvWritesFixedPrecisionPosition() throws IOException {
+        Location position = mock(Location.class);
+        when(position.getLongitude()).thenReturn(-0.0001);
+        when(position.getLatitude()).thenReturn(43.65323);
+        when(position.hasAccuracy()).thenReturn(true);
+        when(position.getAccuracy()).thenReturn(12.6f);
+        List<String> lines = export(CellObservationExporter.Format.CSV_GZIP,
+                scans(Collections.singletonList(LTE_CELL)), position);
+        assertEquals("LTE,302,720,3400,1234567,12,-0.0001000,43.6532300,13,1,1,1476878400,1476878400,-95", lines.get(1));
+    }
+
+    @Test
+    public void jsonlWithoutPosition() throws Exception {
+        List<String> lines = export(CellObservationExporter.Format.JSONL_GZIP,
+                scans(Arrays.asList(LTE_CELL, WCDMA_CELL), Collections.singletonList(LTE_CELL)), null);
+        assertEquals(2, lines.size());
+
+        JSONObject first = new JSONObject(lines.get(0));
+        assertEquals(SCAN_TIME, first.getLong("timestamp"));
+        assertFalse(first.has("position"));
+        assertEquals(2, first.getJSONArray("cellTowers").length());
+        JSONObject tower = first.getJSONArray("cellTowers").getJSONObject(0);
+        assertEquals("lte", tower.getString("radioType"));
+        assertEquals(1234567, tower.getInt("cellId"));
+        assertEquals(1, tower.getInt("serving"));
+
+        JSONObject second = new JSONObject(lines.get(1));
+        assertEquals(SCAN_TIME + 1000, second.getLong("timestamp"));
+        assertEquals(1, second.getJSONArray("cellTowers").length());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GeneralCellInfoFactoryTest {
+    private GeneralCellInfoFactory.Recycler mRecycler;
+
+    @Before
+    public void setUp() {
+        mRecycler = new GeneralCellInfoFactory.Recycler();
+    }
+
+    private static CellReading lte(int cellIdentity, int dbm) {
+        CellReading reading = new CellReading();
+        reading.set(GeneralCellInfo.NETWORK_TYPE_LTE, false, cellIdentity, 302, 720, 12, 3400,
+                dbm, dbm + 140, 2, dbm);
+        return reading;
+    }
+
+    /**
+     * A neighbouring GSM cell that only reports its signal, told apart by nothing but its
+     * scrambling code.
+     */
+    private static CellReading unknownGsm(int scramblingCode) {
+        CellReading reading = new CellReading();
+        reading.set(GeneralCellInfo.NETWORK_TYPE_GSM, false, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, scramblingCode, Integer.MAX_VALUE, -90, 11, 2, Integer.MAX_VALUE);
+        return reading;
+    }
+
+    private boolean scan(CellReading... cells) {
+        mRecycler.beginScan();
+        for (CellReading cell : cells) {
+            mRecycler.add(cell);
+        }
+        return mRecycler.endScan();
+    }
+
+    @Test
+    public void firstScanIsAChange() {
+        assertTrue(scan(lte(1, -90), lte(2, -100)));
+        List<GeneralCellInfo> cells = mRecycler.snapshot();
+        assertEquals(2, cells.size());
+        assertEquals(1, cells.get(0).getCellIdentity());
+        assertEquals(2, cells.get(1).getCellIdentity());
+    }
+
+    @Test
+    public void unchangedScanKeepsSnapshot() {
+        scan(lte(1, -90), lte(2, -100));
+        List<GeneralCellInfo> first = mRecycler.snapshot();
+        assertFalse(scan(lte(1, -90), lte(2, -100)));
+        assertSame(first, mRecycler.snapshot());
+        assertSame(first, mRecycler.snapshot());
+    }
+
+    @Test
+    public void signalChangeUpdatesOnlyThatCell() {
+        scan(lte(1, -90), lte(2, -100));
+        List<GeneralCellInfo> first = mRecycler.snapshot();
+        assertTrue(scan(lte(1, -90), lte(2, -105)));
+        List<GeneralCellInfo> second = mRecycler.snapshot();
+        assertNotSame(first, second);
+        assertSame(first.get(0), second.get(0));
+        assertEquals(-105, second.get(1).getDbmStrength());
+    }
+
+    @Test
+    public void reorderingIsAChange() {
+        scan(lte(1, -90), lte(2, -100));
+        List<GeneralCellInfo> first = mRecycler.snapshot();
+        assertTrue(scan(lte(2, -100), lte(1, -90)));
+        List<GeneralCellInfo> second = mRecycler.snapshot();
+        assertSame(first.get(1), second.get(0));
+        assertSame(first.get(0), second.get(1));
+        assertFalse(scan(lte(2, -100), lte(1, -90)));
+        assertSame(second, mRecycler.snapshot());
+    }
+
+    @Test
+    public void disappearingCellsAreDropped() {
+        scan(lte(1, -90), lte(2, -100), lte(3, -110));
+        assertTrue(scan(lte(1, -90), lte(2, -100)));
+        assertEquals(2, mRecycler.snapshot().size());
+        assertTrue(scan());
+        assertTrue(mRecycler.snapshot().isEmpty());
+        assertFalse(scan());
+    }
+
+    @Test
+    public void reappearingCellIsNew() {
+        scan(lte(1, -90));
+        GeneralCellInfo first = mRecycler.snapshot().get(0);
+        scan();
+        assertTrue(scan(lte(1, -90)));
+        assertNotSame(first, mRecycler.snapshot().get(0));
+        assertEquals(first, mRecycler.snapshot().get(0));
+    }
+
+    @Test
+    public void partiallyKnownCellsMatchedByScramblingCode() {
+        scan(unknownGsm(10), unknownGsm(20));
+        List<GeneralCellInfo> first = mRecycler.snapshot();
+        assertTrue(scan(unknownGsm(20), unknownGsm(30)));
+        List<GeneralCellInfo> second = mRecycler.snapshot();
+        assertSame(first.get(1), second.get(0));
+        assertEquals(30, second.get(1).getScramblingCode());
+    }
+
+    @Test
+    public void duplicateCellsGetTheirOwnReadings() {
+        scan(unknownGsm(10), unknownGsm(10));
+        List<GeneralCellInfo> first = mRecycler.snapshot();
+        assertEquals(2, first.size());
+        assertFalse(scan(unknownGsm(10), unknownGsm(10)));
+        assertTrue(scan(unknownGsm(10)));
+        assertSame(first.get(0), mRecycler.snapshot().get(0));
+    }
+}
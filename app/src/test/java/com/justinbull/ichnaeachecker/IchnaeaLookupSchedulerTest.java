@@ -0,0 +1,261 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.PowerManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs against the mockable android.jar, where Build.VERSION.SDK_INT is 0: the radio is never
+ * reported active and the device never dozes, so only batch size, deadline and connectivity decide
+ * when a batch goes out.
+ */
+public class IchnaeaLookupSchedulerTest {
+    private static final int MAX_BATCH_SIZE = 3;
+    private static final long MAX_DELAY_MILLIS = 60 * 1000;
+    private static final CellLookupResult FOUND = CellLookupResult.found(43.65, -79.38, 250, "fake", 1000);
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private Context mContext;
+    private ConnectivityManager mConnectivityManager;
+    private NetworkInfo mNetwork;
+    private AlarmManager mAlarmManager;
+    private FakeResolver mResolver;
+    private RecordingCallback mCallback;
+    private IchnaeaLookupScheduler mScheduler;
+    private BroadcastReceiver mReceiver;
+
+    /**
+     * Finds every cell, except those it is told to fail.
+     */
+    private static class FakeResolver implements CellResolver {
+        final List<GeneralCellInfo> mResolved = new ArrayList<>();
+        GeneralCellInfo mFailOn;
+        IOException mFailure;
+
+        @Override
+        public CellLookupResult resolve(GeneralCellInfo cell) throws IOException {
+            if (cell.equals(mFailOn)) {
+                throw mFailure;
+            }
+            mResolved.add(cell);
+            return FOUND;
+        }
+    }
+
+    private static class RecordingCallback implements IchnaeaLookupScheduler.Callback {
+        final List<GeneralCellInfo> mResults = new ArrayList<>();
+        final List<GeneralCellInfo> mFailures = new ArrayList<>();
+
+        @Override
+        public void onLookupResult(GeneralCellInfo cell, CellLookupResult result) {
+            mResults.add(cell);
+        }
+
+        @Override
+        public void onLookupFailed(GeneralCellInfo cell, IOException e) {
+            mFailures.add(cell);
+        }
+    }
+
+    private static GeneralCellInfo cell(int cellIdentity) {
+        return new GeneralCellInfo(GeneralCellInfo.NETWORK_TYPE_LTE, false, cellIdentity, 302, 720,
+                12, 3400, -95, 45, 3);
+    }
+
+    private static Intent intent(String action) {
+        Intent intent = mock(Intent.class);
+        when(intent.getAction()).thenReturn(action);
+        return intent;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = mock(Context.class);
+        mConnectivityManager = mock(ConnectivityManager.class);
+        mNetwork = mock(NetworkInfo.class);
+        mAlarmManager = mock(AlarmManager.class);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mConnectivityManager);
+        when(mContext.getSystemService(Context.POWER_SERVICE)).thenReturn(mock(PowerManager.class));
+        when(mContext.getSystemService(Context.ALARM_SERVICE)).thenReturn(mAlarmManager);
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(mNetwork);
+        setNetwork(true, ConnectivityManager.TYPE_WIFI);
+
+        mResolver = new FakeResolver();
+        mCallback = new RecordingCallback();
+        // Batches only ever call resolve(), which runs on the calling thread
+        CellLookupChain chain = new CellLookupChain(null, mResolver);
+        mScheduler = new IchnaeaLookupScheduler(mContext, chain, DIRECT, DIRECT, MAX_BATCH_SIZE, MAX_DELAY_MILLIS);
+        mScheduler.start();
+        ArgumentCaptor<BroadcastReceiver> receiver = ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        mReceiver = receiver.getValue();
+    }
+
+    private void setNetwork(boolean connected, int type) {
+        when(mNetwork.isConnected()).thenReturn(connected);
+        when(mNetwork.getType()).thenReturn(type);
+    }
+
+    @Test
+    public void holdsLookupsUntilBatchFull() {
+        mScheduler.enqueue(cell(1), mCallback);
+        mScheduler.enqueue(cell(2), mCallback);
+        assertEquals(2, mScheduler.getPendingCount());
+        assertTrue(mResolver.mResolved.isEmpty());
+        verify(mAlarmManager).set(eq(AlarmManager.ELAPSED_REALTIME), eq(MAX_DELAY_MILLIS), any(PendingIntent.class));
+
+        mScheduler.enqueue(cell(3), mCallback);
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(3, mCallback.mResults.size());
+        assertEquals(cell(1), mCallback.mResults.get(0));
+        assertEquals(cell(3), mCallback.mResults.get(2));
+        verify(mAlarmManager).cancel(any(PendingIntent.class));
+    }
+
+    @Test
+    public void deadlineFlushesPartialBatch() {
+        mScheduler.enqueue(cell(1), mCallback);
+        mReceiver.onReceive(mContext, intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        assertEquals(1, mScheduler.getPendingCount());
+
+        mReceiver.onReceive(mContext, intent(IchnaeaLookupScheduler.ACTION_DEADLINE));
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(1, mCallback.mResults.size());
+    }
+
+    @Test
+    public void holdsBatchWhileOffline() {
+        setNetwork(false, ConnectivityManager.TYPE_WIFI);
+        mScheduler.enqueue(cell(1), mCallback);
+        mReceiver.onReceive(mContext, intent(IchnaeaLookupScheduler.ACTION_DEADLINE));
+        mScheduler.enqueue(cell(2), mCallback);
+        mScheduler.enqueue(cell(3), mCallback);
+        assertEquals(3, mScheduler.getPendingCount());
+        assertTrue(mResolver.mResolved.isEmpty());
+
+        setNetwork(true, ConnectivityManager.TYPE_WIFI);
+        mReceiver.onReceive(mContext, intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(3, mCallback.mResults.size());
+    }
+
+    @Test
+    public void holdsBatchOnMeteredNetworkIfDisallowed() {
+        setNetwork(true, ConnectivityManager.TYPE_MOBILE);
+        mScheduler.setAllowMetered(false);
+        mScheduler.enqueue(cell(1), mCallback);
+        mReceiver.onReceive(mContext, intent(IchnaeaLookupScheduler.ACTION_DEADLINE));
+        assertEquals(1, mScheduler.getPendingCount());
+
+        setNetwork(true, ConnectivityManager.TYPE_WIFI);
+        mReceiver.onReceive(mContext, intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(1, mCallback.mResults.size());
+    }
+
+    @Test
+    public void sendsOnMeteredNetworkByDefault() {
+        setNetwork(true, ConnectivityManager.TYPE_MOBILE);
+        mScheduler.enqueue(cell(1), mCallback);
+        mReceiver.onReceive(mContext, intent(IchnaeaLookupScheduler.ACTION_DEADLINE));
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(1, mCallback.mResults.size());
+    }
+
+    @Test
+    public void stoppedSchedulerHoldsBatchUntilExplicitFlush() {
+        mScheduler.stop();
+        verify(mContext).unregisterReceiver(mReceiver);
+        for (int i = 1; i <= MAX_BATCH_SIZE; i++) {
+            mScheduler.enqueue(cell(i), mCallback);
+        }
+        verify(mAlarmManager, never()).set(eq(AlarmManager.ELAPSED_REALTIME), anyLong(), any(PendingIntent.class));
+        assertEquals(MAX_BATCH_SIZE, mScheduler.getPendingCount());
+
+        mScheduler.flushNow();
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(MAX_BATCH_SIZE, mCallback.mResults.size());
+    }
+
+    @Test
+    public void failedLookupDoesNotStopBatch() {
+        mResolver.mFailOn = cell(2);
+        mResolver.mFailure = new IOException("Server error");
+        for (int i = 1; i <= MAX_BATCH_SIZE; i++) {
+            mScheduler.enqueue(cell(i), mCallback);
+        }
+        assertEquals(2, mCallback.mResults.size());
+        assertEquals(1, mCallback.mFailures.size());
+        assertEquals(cell(2), mCallback.mFailures.get(0));
+    }
+
+    @Test
+    public void cancelledBatchFailsRemainingLookups() {
+        mResolver.mFailOn = cell(2);
+        mResolver.mFailure = new InterruptedIOException("Lookup cancelled");
+        for (int i = 1; i <= MAX_BATCH_SIZE; i++) {
+            mScheduler.enqueue(cell(i), mCallback);
+        }
+        assertEquals(1, mCallback.mResults.size());
+        assertEquals(cell(1), mCallback.mResults.get(0));
+        assertEquals(2, mCallback.mFailures.size());
+        assertEquals(cell(2), mCallback.mFailures.get(0));
+        assertEquals(cell(3), mCallback.mFailures.get(1));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkOperatorsTest {
+    @Test
+    public void generatedTableIsSortedAndAligned() {
+        assertStrictlyAscending(NetworkOperatorTable.COUNTRY_MCCS);
+        assertStrictlyAscending(NetworkOperatorTable.OPERATOR_KEYS);
+        assertEquals(NetworkOperatorTable.COUNTRY_MCCS.length, NetworkOperatorTable.COUNTRY_CODES.length);
+        assertEquals(NetworkOperatorTable.OPERATOR_KEYS.length, NetworkOperatorTable.OPERATOR_NAMES.length);
+        for (int key : NetworkOperatorTable.OPERATOR_KEYS) {
+            assertTrue("MCC of operator " + key, NetworkOperators.getCountryCode(key / 1000) != null);
+        }
+        for (String country : NetworkOperatorTable.COUNTRY_CODES) {
+            assertEquals(country, 2, country.length());
+        }
+    }
+
+    private static void assertStrictlyAscending(int[] values) {
+        for (int i = 1; i < values.length; i++) {
+            assertTrue(values[i - 1] + " before " + values[i], values[i - 1] < values[i]);
+        }
+    }
+
+    @Test
+    public void countryAndOperatorLookups() {
+        assertEquals("CA", NetworkOperators.getCountryCode(302));
+        assertEquals("US", NetworkOperators.getCountryCode(316));
+        assertEquals("XX", NetworkOperators.getCountryCode(901));
+        assertNull(NetworkOperators.getCountryCode(999));
+        assertEquals("Rogers", NetworkOperators.getOperatorName(302, 720));
+        assertEquals("Vodafone", NetworkOperators.getOperatorName(204, 4));
+        assertNull(NetworkOperators.getOperatorName(302, 999));
+        assertNull(NetworkOperators.getOperatorName(302, 1000));
+        assertNull(NetworkOperators.getOperatorName(302, -1));
+    }
+
+    @Test
+    public void friendlyName() {
+        assertEquals("Rogers (CA)", NetworkOperators.getFriendlyName(302, 720));
+        assertEquals("(CA)", NetworkOperators.getFriendlyName(302, 999));
+        assertEquals("", NetworkOperators.getFriendlyName(999, 1));
+    }
+
+    @Test
+    public void isPlausible() {
+        assertTrue(NetworkOperators.isPlausible(302, 720));
+        // Unlisted MNCs of an assigned MCC are fine, the operator list is partial
+        assertTrue(NetworkOperators.isPlausible(302, 0));
+        assertTrue(NetworkOperators.isPlausible(302, 999));
+        assertTrue(NetworkOperators.isPlausible(901, 12));
+        assertFalse(NetworkOperators.isPlausible(302, 1000));
+        assertFalse(NetworkOperators.isPlausible(302, -1));
+        assertFalse(NetworkOperators.isPlausible(999, 1));
+        assertFalse(NetworkOperators.isPlausible(0, 0));
+        assertFalse(NetworkOperators.isPlausible(Integer.MAX_VALUE, 720));
+    }
+
+    @Test
+    public void isPlausibleCdma() {
+        assertTrue(NetworkOperators.isPlausibleCdma(310, 4));
+        // System identifiers go well past three digits
+        assertTrue(NetworkOperators.isPlausibleCdma(310, 32767));
+        assertFalse(NetworkOperators.isPlausibleCdma(310, 32768));
+        assertFalse(NetworkOperators.isPlausibleCdma(310, -1));
+        assertFalse(NetworkOperators.isPlausibleCdma(Integer.MAX_VALUE, 4));
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Justin A. S. Bull, https://www.justinbull.ca
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.justinbull.ichnaeachecker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationReconcilerTest {
+    private static final int GSM = CellDatasetFile.getNetworkTypeIndex("GSM");
+    private static final int LTE = CellDatasetFile.getNetworkTypeIndex("LTE");
+
+    // Includes MCCs whose packed keys are negative, to cover signed ordering
+    private static final int[][] OPERATORS = {{208, 1}, {302, 720}, {302, 610}, {732, 101}, {999, 99}};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ForkJoinPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    private static String mlsRow(int type, long packed) {
+        int operator = GeneralCellInfo.unpackOperator(packed);
+        return (type == GSM ? "GSM" : "LTE") + "," + operator / 1000 + "," + operator % 1000 + ","
+                + ((packed >>> 28) & 0xFFFF) + "," + (packed & 0xFFFFFFFL) + ",,-79.38,43.65,100\n";
+    }
+
+    private CellDatasetFile dataset(Set<CellKey> cells) throws IOException {
+        StringBuilder csv = new StringBuilder("radio,mcc,net,area,cell,unit,lon,lat,range\n");
+        for (CellKey cell : cells) {
+            csv.append(mlsRow(cell.getNetworkType(), cell.getPacked()));
+        }
+        File file = mFolder.newFile();
+        CellDatasetFile.convertMlsExport(new ByteArrayInputStream(csv.toString().getBytes("UTF-8")), file);
+        return CellDatasetFile.open(file);
+    }
+
+    private static CellKey randomCell(Random random, int cellsPerArea) {
+        int[] operator = OPERATORS[random.nextInt(OPERATORS.length)];
+        return new CellKey(random.nextBoolean() ? GSM : LTE, GeneralCellInfo.packCellKey(
+                operator[0], operator[1], random.nextInt(3), random.nextInt(cellsPerArea)));
+    }
+
+    @Test
+    public void sortTaskSortsByKeyThenType() {
+        Random random = new Random(1);
+        int count = 20000;
+        long[] keys = new long[count];
+        int[] types = new int[count];
+        List<CellKey> expected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CellKey cell = randomCell(random, 500);
+            keys[i] = cell.getPacked();
+            types[i] = cell.getNetworkType();
+            expected.add(cell);
+        }
+        Collections.sort(expected, new Comparator<CellKey>() {
+            @Override
+            public int compare(CellKey lhs, CellKey rhs) {
+                return CellKey.compare(lhs.getPacked(), lhs.getNetworkType(), rhs.getPacked(), rhs.getNetworkType());
+            }
+        });
+
+        mPool.invoke(new ObservationReconciler.SortTask(keys, types, new long[count], new int[count], 0, count, 100));
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.get(i).getPacked(), keys[i]);
+            assertEquals(expected.get(i).getNetworkType(), types[i]);
+        }
+    }
+
+    @Test
+    public void sortTaskSortsOnlyItsRange() {
+        long[] keys = {9, 5, 3, 1, 7};
+        int[] types = {0, 0, 0, 0, 0};
+        mPool.invoke(new ObservationReconciler.SortTask(keys, types, new long[5], new int[5], 1, 4, 2));
+        assertArrayEquals(new long[]{9, 1, 3, 5, 7}, keys);
+    }
+
+    @Test
+    public void splitPointMovesToNextCell() {
+        long[] keys = {1, 1, 1, 1, 2, 2, 3};
+        int[] types = new int[keys.length];
+        assertEquals(4, ObservationReconciler.splitPoint(keys, types, 0, keys.length));
+        assertEquals(4, ObservationReconciler.splitPoint(keys, types, 2, 6));
+        assertEquals(6, ObservationReconciler.splitPoint(keys, types, 4, 7));
+        // Without a boundary past the middle there's nothing to split
+        assertEquals(4, ObservationReconciler.splitPoint(keys, types, 0, 4));
+    }
+
+    @Test
+    public void splitPointTellsNetworkTypesApart() {
+        long[] keys = {1, 1, 1, 1};
+        int[] types = {GSM, GSM, LTE, LTE};
+        if (GSM > LTE) {
+            types = new int[]{LTE, LTE, GSM, GSM};
+        }
+        assertEquals(2, ObservationReconciler.splitPoint(keys, types, 0, 4));
+        assertEquals(2, ObservationReconciler.splitPoint(keys, types, 1, 4));
+        // One cell only
+        assertEquals(2, ObservationReconciler.splitPoint(keys, types, 0, 2));
+        assertEquals(4, ObservationReconciler.splitPoint(keys, types, 2, 4));
+    }
+
+    @Test
+    public void gallopAgreesWithLowerBound() throws IOException {
+        Random random = new Random(2);
+        Set<CellKey> cells = new HashSet<>();
+        while (cells.size() < 2000) {
+            cells.add(randomCell(random, 5000));
+        }
+        CellDatasetFile dataset = dataset(cells);
+        try {
+            long records = dataset.getRecordCount();
+            for (int n = 0; n < 2000; n++) {
+                CellKey probe = randomCell(random, 5000);
+                long expected = dataset.lowerBound(probe.getPacked(), probe.getNetworkType());
+                // Galloping from anywhere at or before the answer must find it
+                long from = expected == 0 ? 0 : (long) (random.nextDouble() * expected);
+                assertEquals(expected, ObservationReconciler.gallop(dataset, from, probe.getPacked(), probe.getNetworkType()));
+                assertEquals(expected, ObservationReconciler.gallop(dataset, expected, probe.getPacked(), probe.getNetworkType()));
+            }
+            assertEquals(records, ObservationReconciler.gallop(dataset, 0, Long.MAX_VALUE, 0));
+            assertEquals(records, ObservationReconciler.gallop(dataset, records, 0, 0));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void mergeStitchesSharedOperator() {
+        ObservationReconciler.Report left = new ObservationReconciler.Report();
+        left.add(208001, true, 3);
+        left.add(302720, true, 1);
+        left.add(302720, false, 2);
+        ObservationReconciler.Report right = new ObservationReconciler.Report();
+        right.add(302720, true, 5);
+        right.add(302720, false, 1);
+        right.add(302610, false, 4);
+
+        ObservationReconciler.Report merged = ObservationReconciler.Report.merge(left, right);
+        assertEquals(3, merged.getOperatorCount());
+        assertEquals(208001, merged.getOperator(0));
+        assertEquals(302720, merged.getOperator(1));
+        assertEquals(2, merged.getOperatorFoundCells(1));
+        assertEquals(2, merged.getOperatorMissingCells(1));
+        assertEquals(302610, merged.getOperator(2));
+        assertEquals(1, merged.getOperatorMissingCells(2));
+        assertEquals(3, merged.getFoundCells());
+        assertEquals(3, merged.getMissingCells());
+        assertEquals(9, merged.getFoundObservations());
+        assertEquals(7, merged.getMissingObservations());
+    }
+
+    @Test
+    public void mergeKeepsDistinctOperatorsApart() {
+        ObservationReconciler.Report left = new ObservationReconciler.Report();
+        left.add(208001, true, 1);
+        ObservationReconciler.Report right = new ObservationReconciler.Report();
+        right.add(302720, false, 1);
+        right.add(208001, true, 1); // Not adjacent to left's, so not stitched
+
+        ObservationReconciler.Report merged = ObservationReconciler.Report.merge(left, right);
+        assertEquals(3, merged.getOperatorCount());
+        assertEquals(0, ObservationReconciler.Report.merge(new ObservationReconciler.Report(),
+                new ObservationReconciler.Report()).getOperatorCount());
+        assertEquals(1, ObservationReconciler.Report.merge(new ObservationReconciler.Report(), left).getOperatorCount());
+    }
+
+    @Test
+    public void reconcileMatchesBruteForceCount() throws IOException {
+        Random random = new Random(3);
+        Set<CellKey> known = new HashSet<>();
+        while (known.size() < 3000) {
+            known.add(randomCell(random, 2000));
+        }
+        ObservationReconciler.Observations observations = new ObservationReconciler.Observations(16);
+        Map<CellKey, Integer> observed = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            // Skewed towards few cells so many observations repeat, across slice boundaries too
+            CellKey cell = randomCell(random, random.nextBoolean() ? 20 : 2000);
+            observations.add(cell.getPacked(), cell.getNetworkType());
+            Integer count = observed.get(cell);
+            observed.put(cell, count == null ? 1 : count + 1);
+        }
+
+        long foundCells = 0;
+        long foundObservations = 0;
+        long missingObservations = 0;
+        Map<Integer, long[]> perOperator = new HashMap<>();
+        for (Map.Entry<CellKey, Integer> entry : observed.entrySet()) {
+            boolean found = known.contains(entry.getKey());
+            int operator = GeneralCellInfo.unpackOperator(entry.getKey().getPacked());
+            long[] counts = perOperator.get(operator);
+            if (counts == null) {
+                counts = new long[2];
+                perOperator.put(operator, counts);
+            }
+            if (found) {
+                foundCells++;
+                foundObservations += entry.getValue();
+                counts[0]++;
+            } else {
+                missingObservations += entry.getValue();
+                counts[1]++;
+            }
+        }
+
+        CellDatasetFile dataset = dataset(known);
+        ObservationReconciler.Report report;
+        try {
+            report = new ObservationReconciler(mPool, 64, 256).reconcile(observations, dataset);
+        } finally {
+            dataset.close();
+        }
+        assertEquals(observed.size(), report.getCellCount());
+        assertEquals(foundCells, report.getFoundCells());
+        assertEquals(foundObservations, report.getFoundObservations());
+        assertEquals(missingObservations, report.getMissingObservations());
+        assertEquals(perOperator.size(), report.getOperatorCount());
+        for (int i = 0; i < report.getOperatorCount(); i++) {
+            long[] counts = perOperator.get(report.getOperator(i));
+            assertEquals(counts[0], report.getOperatorFoundCells(i));
+            assertEquals(counts[1], report.getOperatorMissingCells(i));
+        }
+    }
+
+    @Test
+    public void reconcileEmptyObservations() throws IOException {
+        CellDatasetFile dataset = dataset(new HashSet<CellKey>());
+        try {
+            ObservationReconciler.Report report = new ObservationReconciler(mPool)
+                    .reconcile(new ObservationReconciler.Observations(0), dataset);
+            assertEquals(0, report.getCellCount());
+            assertTrue(Double.isNaN(report.getCoverage()));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void readObservationsParsesExportedCsv() throws IOException {
+        String csv = "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal\n"
+                + "LTE,302,720,3400,1234567,12,-79.38,43.65,10,1,1,1476878400,1476878400,-95\n"
+                + "GSM,302,720,100,5,,,,,1,1,1476878400,1476878400,\n"
+                + "UMTS,302,610,,70000,300,,,,1,1,1476878400,1476878400,-80\n"
+                + "LTE,,,,,12,,,,1,1,1476878400,1476878400,-110\n";
+        ObservationReconciler.Observations observations =
+                ObservationReconciler.readObservations(new ByteArrayInputStream(csv.getBytes("UTF-8")));
+        // The UMTS row lacks its area and the last one everything but the PCI
+        assertEquals(2, observations.size());
+    }
+}